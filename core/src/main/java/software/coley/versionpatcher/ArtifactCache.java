@@ -0,0 +1,213 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of patched artifacts, shared between builds and projects on the same machine.
+ * <br>
+ * Entries are addressed by a {@link #key(Path, PatchOptions) key} derived from the content of the input artifact,
+ * the target version and the patcher version, so a cached entry never needs invalidating.
+ * New entries are written to a temporary file and atomically moved into place, so readers in other processes
+ * never see partial entries. Two processes populating the same entry at once both produce the same content,
+ * so whichever finishes last simply replaces an identical file.
+ * <br>
+ * The total size is bounded by evicting the least recently used entries, where use is tracked through
+ * the last modified time of the entries. Eviction is serialized between processes with a file lock.
+ *
+ * @author Matt Coley
+ */
+public class ArtifactCache {
+	private static final String ENTRY_SUFFIX = ".jar";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = ".lock";
+	private static final long STALE_TEMP_AGE = TimeUnit.DAYS.toMillis(1);
+	// File locks are held per process, so threads of the same process must be serialized separately
+	private static final Object EVICTION_LOCK = new Object();
+	private final Path directory;
+	private final long maxSize;
+
+	/**
+	 * @param directory
+	 * 		Directory to store entries in.
+	 * @param maxSize
+	 * 		Maximum total size of entries in bytes.
+	 */
+	public ArtifactCache(Path directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param artifact
+	 * 		Artifact to patch.
+	 * @param options
+	 * 		Options the artifact is patched with.
+	 *
+	 * @return Key of the patched artifact.
+	 *
+	 * @throws IOException
+	 * 		When the artifact cannot be read.
+	 */
+	public static String key(Path artifact, PatchOptions options) throws IOException {
+		String identity = Hashes.sha256(artifact) + ';' + options.getTargetVersion() + ';' + options.getOutputKey();
+		return Hashes.sha256(identity.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param key
+	 * 		Entry key.
+	 *
+	 * @return Path of the cached entry, or {@code null} when not cached.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be marked as used.
+	 */
+	public Path get(String key) throws IOException {
+		Path entry = directory.resolve(key + ENTRY_SUFFIX);
+		try {
+			// Mark as recently used
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			return entry;
+		} catch (NoSuchFileException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param key
+	 * 		Entry key.
+	 * @param writer
+	 * 		Writes the content of the entry to a given path, when not already cached.
+	 *
+	 * @return Path of the cached entry.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be written.
+	 */
+	public Path computeIfAbsent(String key, EntryWriter writer) throws IOException {
+		Path entry = get(key);
+		if (entry != null)
+			return entry;
+		Files.createDirectories(directory);
+		entry = directory.resolve(key + ENTRY_SUFFIX);
+		Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+		try {
+			writer.write(temp);
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				try {
+					Files.move(temp, entry);
+				} catch (FileAlreadyExistsException ignored) {
+					// Another process populated the entry first
+				}
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		// The entry is about to be used, so it must survive even when it alone exceeds the limit
+		evict(key);
+		return entry;
+	}
+
+	/**
+	 * Removes the least recently used entries until the total size is within the limit.
+	 *
+	 * @throws IOException
+	 * 		When the cache directory cannot be read.
+	 */
+	public void evict() throws IOException {
+		evict(null);
+	}
+
+	/**
+	 * Removes the least recently used entries until the total size is within the limit.
+	 *
+	 * @param retainedKey
+	 * 		Key of an entry to never remove, such as one that is about to be read. May be {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the cache directory cannot be read.
+	 */
+	@SuppressWarnings("try")
+	public void evict(String retainedKey) throws IOException {
+		if (!Files.isDirectory(directory))
+			return;
+		synchronized (EVICTION_LOCK) {
+			try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				 FileLock ignored = channel.lock()) {
+				List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>();
+				long totalSize = 0;
+				long now = System.currentTimeMillis();
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+					for (Path path : stream) {
+						String name = path.getFileName().toString();
+						BasicFileAttributes attribute;
+						try {
+							attribute = Files.readAttributes(path, BasicFileAttributes.class);
+						} catch (NoSuchFileException ex) {
+							continue;
+						}
+						if (name.endsWith(TEMP_SUFFIX)) {
+							// Left behind by a process that was killed while writing
+							if (now - attribute.lastModifiedTime().toMillis() > STALE_TEMP_AGE)
+								Files.deleteIfExists(path);
+						} else if (name.endsWith(ENTRY_SUFFIX)) {
+							entries.add(new AbstractMap.SimpleEntry<>(path, attribute));
+							totalSize += attribute.size();
+						}
+					}
+				}
+				if (totalSize <= maxSize)
+					return;
+				if (retainedKey != null)
+					entries.removeIf(entry -> entry.getKey().getFileName().toString().equals(retainedKey + ENTRY_SUFFIX));
+				entries.sort(Map.Entry.comparingByValue(Comparator.comparing(BasicFileAttributes::lastModifiedTime)));
+				for (Map.Entry<Path, BasicFileAttributes> entry : entries) {
+					if (totalSize <= maxSize)
+						break;
+					try {
+						Files.deleteIfExists(entry.getKey());
+						totalSize -= entry.getValue().size();
+					} catch (IOException ex) {
+						// Still open by another process on a platform that disallows deleting open files
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writer of cache entry content.
+	 */
+	public interface EntryWriter {
+		/**
+		 * @param path
+		 * 		Path to write the entry to.
+		 *
+		 * @throws IOException
+		 * 		When the entry cannot be written.
+		 */
+		void write(Path path) throws IOException;
+	}
+}
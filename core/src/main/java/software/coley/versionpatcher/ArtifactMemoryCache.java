@@ -0,0 +1,142 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * In-memory cache of the patched classes of artifacts, shared by everything running in the same JVM.
+ * In a multi-module build this allows each artifact to be patched once, no matter how many modules request it.
+ * <br>
+ * Concurrent requests for the same artifact wait for the one request already loading it, rather than
+ * loading it again. Loaded artifacts are kept until the total size of their classes exceeds a byte budget,
+ * at which point the least recently used artifacts are dropped.
+ *
+ * @author Matt Coley
+ */
+public class ArtifactMemoryCache {
+	private static final ArtifactMemoryCache SHARED = new ArtifactMemoryCache(Runtime.getRuntime().maxMemory() / 8);
+	private final Map<String, CompletableFuture<Map<String, byte[]>>> loading = new ConcurrentHashMap<>();
+	private final LinkedHashMap<String, Map<String, byte[]>> loaded = new LinkedHashMap<>(16, 0.75F, true);
+	private final long maxSize;
+	private long size;
+
+	/**
+	 * @param maxSize
+	 * 		Maximum total size of cached classes in bytes.
+	 */
+	public ArtifactMemoryCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return Cache shared by the JVM, limited to an eighth of the maximum heap size.
+	 */
+	public static ArtifactMemoryCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param key
+	 * 		Artifact key, which should identify both the artifact and the options it is patched with.
+	 * @param loader
+	 * 		Loads the patched classes of the artifact, when not already cached or being loaded.
+	 *
+	 * @return Unmodifiable map of class entry names to patched classes.
+	 *
+	 * @throws IOException
+	 * 		When the artifact cannot be loaded.
+	 */
+	public Map<String, byte[]> get(String key, Loader loader) throws IOException {
+		synchronized (loaded) {
+			Map<String, byte[]> classes = loaded.get(key);
+			if (classes != null)
+				return classes;
+		}
+		CompletableFuture<Map<String, byte[]>> future = new CompletableFuture<>();
+		CompletableFuture<Map<String, byte[]>> existing = loading.putIfAbsent(key, future);
+		if (existing != null)
+			return await(existing);
+		try {
+			Map<String, byte[]> classes;
+			synchronized (loaded) {
+				// Check again, in case another request finished loading in between
+				classes = loaded.get(key);
+			}
+			if (classes == null) {
+				classes = Collections.unmodifiableMap(loader.load());
+				put(key, classes);
+			}
+			future.complete(classes);
+			return classes;
+		} catch (IOException | RuntimeException | Error ex) {
+			// Requests waiting on the load would otherwise block forever
+			future.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			loading.remove(key);
+		}
+	}
+
+	/**
+	 * Drops all cached artifacts.
+	 */
+	public void clear() {
+		synchronized (loaded) {
+			loaded.clear();
+			size = 0;
+		}
+	}
+
+	private void put(String key, Map<String, byte[]> classes) {
+		long classesSize = 0;
+		for (byte[] bytecode : classes.values())
+			classesSize += bytecode.length;
+		// Artifacts larger than the whole budget would only evict everything else, and then themselves
+		if (classesSize > maxSize)
+			return;
+		synchronized (loaded) {
+			if (loaded.put(key, classes) != null)
+				return;
+			size += classesSize;
+			Iterator<Map<String, byte[]>> iterator = loaded.values().iterator();
+			while (size > maxSize && iterator.hasNext()) {
+				for (byte[] bytecode : iterator.next().values())
+					size -= bytecode.length;
+				iterator.remove();
+			}
+		}
+	}
+
+	private static Map<String, byte[]> await(CompletableFuture<Map<String, byte[]>> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for artifact", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException)
+				throw new IOException(cause.getMessage(), cause);
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Loader of the patched classes of an artifact.
+	 */
+	public interface Loader {
+		/**
+		 * @return Map of class entry names to patched classes.
+		 *
+		 * @throws IOException
+		 * 		When the artifact cannot be loaded.
+		 */
+		Map<String, byte[]> load() throws IOException;
+	}
+}
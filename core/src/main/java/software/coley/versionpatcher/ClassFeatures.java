@@ -0,0 +1,318 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Summary of the version-specific features a class uses, gathered by walking only its constant pool
+ * and attribute tables. This is much cheaper than visiting the class, and is used to decide which
+ * transformations of {@link VersionPatcher} can apply to it.
+ *
+ * @author Matt Coley
+ */
+public class ClassFeatures {
+	// Constant pool tags
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+	private boolean invokeDynamic;
+	private boolean stringConcat;
+	private boolean recordReference;
+	private boolean recordSuperType;
+	private boolean recordObjectMethods;
+	private boolean lambdaMetafactory;
+	private boolean switchBootstraps;
+	private boolean constantDynamic;
+	private boolean nestHost;
+	private boolean nestMembers;
+	private boolean permittedSubclasses;
+	private boolean recordAttribute;
+	private boolean moduleAttribute;
+	private int constantPoolVersion = Opcodes.V1_1 & 0xFFFF;
+
+	private ClassFeatures() {
+	}
+
+	/**
+	 * @param bytecode
+	 * 		Class to scan.
+	 *
+	 * @return Features of the class.
+	 */
+	public static ClassFeatures scan(byte[] bytecode) {
+		return scan(new ClassReader(bytecode));
+	}
+
+	/**
+	 * @param reader
+	 * 		Class to scan.
+	 *
+	 * @return Features of the class.
+	 */
+	public static ClassFeatures scan(ClassReader reader) {
+		ClassFeatures features = new ClassFeatures();
+		char[] buffer = new char[reader.getMaxStringLength()];
+		features.scanConstantPool(reader, buffer);
+		features.scanAttributes(reader, buffer);
+		features.recordSuperType = features.recordReference && "java/lang/Record".equals(reader.getSuperName());
+		return features;
+	}
+
+	private void scanConstantPool(ClassReader reader, char[] buffer) {
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset == 0)
+				continue; // Second slot of long/double
+			switch (reader.readByte(offset - 1)) {
+				case CONSTANT_CLASS:
+					String className = reader.readUTF8(offset, buffer);
+					if ("java/lang/Record".equals(className))
+						recordReference = true;
+					else if ("java/lang/runtime/ObjectMethods".equals(className))
+						recordObjectMethods = true;
+					else if ("java/lang/invoke/LambdaMetafactory".equals(className))
+						lambdaMetafactory = true;
+					else if ("java/lang/runtime/SwitchBootstraps".equals(className))
+						switchBootstraps = true;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+				case CONSTANT_METHOD_TYPE:
+					requireConstantPoolVersion(Opcodes.V1_7);
+					break;
+				case CONSTANT_INVOKE_DYNAMIC:
+					requireConstantPoolVersion(Opcodes.V1_7);
+					invokeDynamic = true;
+					// CONSTANT_InvokeDynamic_info { u1 tag, u2 bootstrap_method_attr_index, u2 name_and_type_index }
+					int nameAndTypeOffset = reader.getItem(reader.readUnsignedShort(offset + 2));
+					if (StringIndyRewriter.isStringConcat(reader.readUTF8(nameAndTypeOffset, buffer)))
+						stringConcat = true;
+					break;
+				case CONSTANT_DYNAMIC:
+					requireConstantPoolVersion(Opcodes.V11);
+					constantDynamic = true;
+					break;
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					requireConstantPoolVersion(Opcodes.V9);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private void scanAttributes(ClassReader reader, char[] buffer) {
+		// Skip: access_flags, this_class, super_class, interfaces
+		int offset = reader.header + 6;
+		offset += 2 + 2 * reader.readUnsignedShort(offset);
+		// Skip fields and methods, which share the same layout
+		for (int i = 0; i < 2; i++) {
+			int memberCount = reader.readUnsignedShort(offset);
+			offset += 2;
+			while (memberCount-- > 0) {
+				// Skip: access_flags, name_index, descriptor_index
+				offset += 6;
+				offset = skipAttributes(reader, offset);
+			}
+		}
+		// Check the class attributes
+		int attributeCount = reader.readUnsignedShort(offset);
+		offset += 2;
+		while (attributeCount-- > 0) {
+			switch (reader.readUTF8(offset, buffer)) {
+				case "NestHost":
+					nestHost = true;
+					break;
+				case "NestMembers":
+					nestMembers = true;
+					break;
+				case "PermittedSubclasses":
+					permittedSubclasses = true;
+					break;
+				case "Record":
+					recordAttribute = true;
+					break;
+				case "Module":
+					moduleAttribute = true;
+					break;
+				default:
+					break;
+			}
+			offset += 6 + reader.readInt(offset + 2);
+		}
+	}
+
+	private static int skipAttributes(ClassReader reader, int offset) {
+		int attributeCount = reader.readUnsignedShort(offset);
+		offset += 2;
+		while (attributeCount-- > 0) {
+			// Skip: attribute_name_index, attribute_length, info
+			offset += 6 + reader.readInt(offset + 2);
+		}
+		return offset;
+	}
+
+	private void requireConstantPoolVersion(int version) {
+		constantPoolVersion = Math.max(constantPoolVersion, version);
+	}
+
+	/**
+	 * @return {@code true} when the constant pool contains any invoke-dynamic entries.
+	 */
+	public boolean hasInvokeDynamic() {
+		return invokeDynamic;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool contains Java 9+ string concatenation invoke-dynamic entries.
+	 */
+	public boolean hasStringConcat() {
+		return stringConcat;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool references {@code java/lang/Record}.
+	 */
+	public boolean hasRecordReference() {
+		return recordReference;
+	}
+
+	/**
+	 * @return {@code true} when the class extends {@code java/lang/Record}.
+	 */
+	public boolean hasRecordSuperType() {
+		return recordSuperType;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool references {@code java/lang/runtime/ObjectMethods},
+	 * the bootstrap of generated record methods.
+	 */
+	public boolean hasRecordObjectMethods() {
+		return recordObjectMethods;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool references {@code java/lang/invoke/LambdaMetafactory},
+	 * the bootstrap of lambdas and method references.
+	 */
+	public boolean hasLambdaMetafactory() {
+		return lambdaMetafactory;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool references {@code java/lang/runtime/SwitchBootstraps},
+	 * the bootstrap of pattern and enum switches.
+	 */
+	public boolean hasSwitchBootstraps() {
+		return switchBootstraps;
+	}
+
+	/**
+	 * @return {@code true} when the constant pool has {@code CONSTANT_Dynamic} entries.
+	 */
+	public boolean hasConstantDynamic() {
+		return constantDynamic;
+	}
+
+	/**
+	 * @return {@code true} when the class has a {@code NestHost} attribute.
+	 */
+	public boolean hasNestHost() {
+		return nestHost;
+	}
+
+	/**
+	 * @return {@code true} when the class has a {@code NestMembers} attribute.
+	 */
+	public boolean hasNestMembers() {
+		return nestMembers;
+	}
+
+	/**
+	 * @return {@code true} when the class has a {@code PermittedSubclasses} attribute.
+	 */
+	public boolean hasPermittedSubclasses() {
+		return permittedSubclasses;
+	}
+
+	/**
+	 * @return {@code true} when the class has a {@code Record} attribute.
+	 */
+	public boolean hasRecordAttribute() {
+		return recordAttribute;
+	}
+
+	/**
+	 * @return {@code true} when the class has a {@code Module} attribute.
+	 */
+	public boolean hasModuleAttribute() {
+		return moduleAttribute;
+	}
+
+	/**
+	 * @return Lowest class version that supports all entry types in the constant pool.
+	 */
+	public int getConstantPoolVersion() {
+		return constantPoolVersion;
+	}
+
+	/**
+	 * @param targetVersion
+	 * 		Java version to target.
+	 *
+	 * @return {@code true} when {@link VersionPatcher} must make structural changes to the class for the target version.
+	 * {@code false} when the only change needed is to the class file version.
+	 */
+	public boolean requiresRewrite(int targetVersion) {
+		if (constantPoolVersion > 44 + targetVersion)
+			return true;
+		if (targetVersion < 9 && (stringConcat || moduleAttribute))
+			return true;
+		if (targetVersion < 11 && (nestHost || nestMembers))
+			return true;
+		if (targetVersion < 14 && (recordSuperType || recordAttribute))
+			return true;
+		if (targetVersion < 15 && permittedSubclasses)
+			return true;
+		return targetVersion < 21 && switchBootstraps;
+	}
+
+	/**
+	 * @param options
+	 * 		Patching configuration.
+	 *
+	 * @return {@code true} when {@link VersionPatcher} must make structural changes to the class for the target version,
+	 * or to {@link PatchOptions#isOptimizeStartup() optimize startup}.
+	 * {@code false} when the only change needed, if any, is to the class file version.
+	 */
+	public boolean requiresRewrite(PatchOptions options) {
+		if (requiresRewrite(options.getTargetVersion()))
+			return true;
+		return options.isOptimizeStartup() && (stringConcat || lambdaMetafactory || switchBootstraps || (recordSuperType && recordObjectMethods));
+	}
+
+	@Override
+	public String toString() {
+		return "ClassFeatures{" +
+				"invokeDynamic=" + invokeDynamic +
+				", stringConcat=" + stringConcat +
+				", recordReference=" + recordReference +
+				", recordSuperType=" + recordSuperType +
+				", recordObjectMethods=" + recordObjectMethods +
+				", lambdaMetafactory=" + lambdaMetafactory +
+				", switchBootstraps=" + switchBootstraps +
+				", constantDynamic=" + constantDynamic +
+				", nestHost=" + nestHost +
+				", nestMembers=" + nestMembers +
+				", permittedSubclasses=" + permittedSubclasses +
+				", recordAttribute=" + recordAttribute +
+				", moduleAttribute=" + moduleAttribute +
+				", constantPoolVersion=" + constantPoolVersion +
+				'}';
+	}
+}
@@ -0,0 +1,81 @@
+package software.coley.versionpatcher;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Utilities for reading the fixed-size header of a class file without parsing the rest of it.
+ *
+ * @author Matt Coley
+ */
+public final class ClassHeader {
+	/**
+	 * Length of the header: {@code u4 magic, u2 minor_version, u2 major_version}.
+	 */
+	public static final int LENGTH = 8;
+	/**
+	 * Offset of the {@code u2 minor_version} item, which is directly followed by the {@code u2 major_version} item.
+	 */
+	public static final int VERSION_OFFSET = 4;
+	/**
+	 * Offset of the {@code u2 major_version} item.
+	 */
+	public static final int MAJOR_VERSION_OFFSET = 6;
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private ClassHeader() {
+	}
+
+	/**
+	 * @param header
+	 * 		Class file, or at least the first {@link #LENGTH} bytes of one.
+	 *
+	 * @return Major version of the class.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When the header is too short or not of a class file.
+	 */
+	public static int getMajorVersion(byte[] header) {
+		return getMajorVersion(ByteBuffer.wrap(header));
+	}
+
+	/**
+	 * @param header
+	 * 		Buffer positioned at the start of a class file, with at least {@link #LENGTH} bytes remaining.
+	 * 		The position of the buffer is not modified.
+	 *
+	 * @return Major version of the class.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When the header is too short or not of a class file.
+	 */
+	public static int getMajorVersion(ByteBuffer header) {
+		int start = header.position();
+		if (header.remaining() < LENGTH || readInt(header, start) != MAGIC)
+			throw new IllegalArgumentException("Not a class file");
+		return ((header.get(start + MAJOR_VERSION_OFFSET) & 0xFF) << 8) | (header.get(start + MAJOR_VERSION_OFFSET + 1) & 0xFF);
+	}
+
+	/**
+	 * Writes the {@code u2 minor_version} and {@code u2 major_version} items.
+	 * The minor version is always zero, which also clears any preview feature flag.
+	 *
+	 * @param buffer
+	 * 		Buffer to write to.
+	 * @param offset
+	 * 		Offset in the buffer to write the four bytes of the version items at.
+	 * @param majorVersion
+	 * 		Major version to write.
+	 */
+	public static void putVersion(byte[] buffer, int offset, int majorVersion) {
+		buffer[offset] = 0;
+		buffer[offset + 1] = 0;
+		buffer[offset + 2] = (byte) (majorVersion >>> 8);
+		buffer[offset + 3] = (byte) majorVersion;
+	}
+
+	private static int readInt(ByteBuffer buffer, int offset) {
+		// Read explicitly as big-endian, regardless of the buffer's configured byte order
+		return ((buffer.get(offset) & 0xFF) << 24) | ((buffer.get(offset + 1) & 0xFF) << 16) |
+				((buffer.get(offset + 2) & 0xFF) << 8) | (buffer.get(offset + 3) & 0xFF);
+	}
+}
@@ -0,0 +1,94 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+
+/**
+ * Input and output of a single class handled by a {@link PatchEngine}.
+ * Implementations may be called from multiple threads, but each instance is only ever handled by one thread at a time.
+ *
+ * @author Matt Coley
+ */
+public interface ClassSource {
+	/**
+	 * @return Display name of the source, used for reporting.
+	 */
+	String getName();
+
+	/**
+	 * @return Bytecode of the class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be read.
+	 */
+	byte[] read() throws IOException;
+
+	/**
+	 * Reads only as much of the class as is required to get the major version.
+	 * The default implementation reads the full class, so sources that can cheaply read
+	 * only the {@link ClassHeader#LENGTH header} should override this.
+	 *
+	 * @return Major version of the class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be read.
+	 */
+	default int readMajorVersion() throws IOException {
+		return ClassHeader.getMajorVersion(read());
+	}
+
+	/**
+	 * @param bytecode
+	 * 		Patched bytecode of the class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be written.
+	 */
+	void write(byte[] bytecode) throws IOException;
+
+	/**
+	 * Called after {@link #write(byte[])} for each class generated alongside the patched class, such as for desugared lambdas.
+	 * Generated classes are in the same package as the patched class.
+	 * The default implementation does not support generated classes.
+	 *
+	 * @param internalName
+	 * 		Internal name of the generated class.
+	 * @param bytecode
+	 * 		Bytecode of the generated class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be written.
+	 */
+	default void writeGenerated(String internalName, byte[] bytecode) throws IOException {
+		throw new IOException("Cannot write class " + internalName + " generated for: " + getName());
+	}
+
+	/**
+	 * Called instead of {@link #write(byte[])} when the only change the class needs is to its version.
+	 * The default implementation writes a copy of the class with the new version.
+	 *
+	 * @param bytecode
+	 * 		Original bytecode of the class, as returned by {@link #read()}. Must not be modified.
+	 * @param majorVersion
+	 * 		New major version of the class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be written.
+	 */
+	default void writeVersion(byte[] bytecode, int majorVersion) throws IOException {
+		byte[] copy = bytecode.clone();
+		ClassHeader.putVersion(copy, ClassHeader.VERSION_OFFSET, majorVersion);
+		write(copy);
+	}
+
+	/**
+	 * Called instead of {@link #write(byte[])} when the class does not need any patching,
+	 * so that the output should be identical to the input.
+	 * The default implementation copies the {@link #read() input} to the {@link #write(byte[]) output}.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be copied.
+	 */
+	default void passThrough() throws IOException {
+		write(read());
+	}
+}
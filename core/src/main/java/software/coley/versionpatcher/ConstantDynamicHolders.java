@@ -0,0 +1,359 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates a holder class for each dynamic constant of a class, replacing {@code ldc} of {@code CONSTANT_Dynamic}
+ * entries on versions before Java 11.
+ * <p>
+ * Each holder {@code Owner$$Condy$N} has a static {@code VALUE} field, assigned in its static initializer from a
+ * synthetic {@code condy$N} method of the class, which calls the bootstrap method like the JVM would. The bootstrap
+ * only runs when the holder is first accessed and the JVM initializes classes once, so constants keep being computed
+ * lazily and only once, instead of eagerly in the static initializer of the class. The computation stays in the class
+ * itself, so the bootstrap gets the class's own lookup. Constants used as bootstrap arguments of other constants
+ * get holders of their own.
+ *
+ * @author Matt Coley
+ */
+public class ConstantDynamicHolders implements Opcodes {
+	private static final String CLASS_INFIX = "$$Condy$";
+	private static final String METHOD_PREFIX = "condy$";
+	private static final String VALUE_FIELD = "VALUE";
+	private static final Type LOOKUP = Type.getObjectType("java/lang/invoke/MethodHandles$Lookup");
+	private static final Type STRING = Type.getObjectType("java/lang/String");
+	private static final Type CLASS = Type.getObjectType("java/lang/Class");
+	private final Map<ConstantDynamic, Integer> holders = new LinkedHashMap<>();
+	private final Map<String, byte[]> classes = new LinkedHashMap<>();
+	private final String owner;
+	private final boolean isInterface;
+	private final int classVersion;
+
+	/**
+	 * @param owner
+	 * 		Internal name of the class the constants are declared in.
+	 * @param isInterface
+	 * 		Whether the class is an interface.
+	 * @param classVersion
+	 * 		Class file version of the patched class, also used for the generated classes.
+	 */
+	public ConstantDynamicHolders(String owner, boolean isInterface, int classVersion) {
+		this.owner = owner;
+		this.isInterface = isInterface;
+		this.classVersion = classVersion;
+	}
+
+	/**
+	 * @param constant
+	 * 		Dynamic constant to check.
+	 *
+	 * @return {@code true} when the constant can be replaced by a holder.
+	 * Bootstraps that are not static methods, or whose parameters do not fit the constant's arguments, are not supported.
+	 */
+	public boolean canLower(ConstantDynamic constant) {
+		// Bootstraps need 'java.lang.invoke', and the accessors of interfaces need static interface methods
+		if (classVersion < V1_7 || isInterface && classVersion < V1_8)
+			return false;
+		Handle bsm = constant.getBootstrapMethod();
+		if (bsm.getTag() != H_INVOKESTATIC)
+			return false;
+		Type[] parameters = Type.getArgumentTypes(bsm.getDesc());
+		if (parameters.length < 3 || !LOOKUP.equals(parameters[0]) || !STRING.equals(parameters[1]) || !CLASS.equals(parameters[2]))
+			return false;
+		if (!canConvert(Type.getReturnType(bsm.getDesc()), Type.getType(constant.getDescriptor())))
+			return false;
+		int directCount = getDirectArgumentCount(parameters, constant);
+		if (directCount < 0)
+			return false;
+		for (int i = 0; i < constant.getBootstrapMethodArgumentCount(); i++) {
+			Object argument = constant.getBootstrapMethodArgument(i);
+			if (argument instanceof ConstantDynamic && !canLower((ConstantDynamic) argument))
+				return false;
+			if (!canConvert(getValueType(argument), getParameterType(parameters, directCount, i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param constant
+	 * 		Dynamic constant to load.
+	 */
+	public void emitLoad(MethodVisitor mv, ConstantDynamic constant) {
+		mv.visitFieldInsn(GETSTATIC, getHolder(constant), VALUE_FIELD, constant.getDescriptor());
+	}
+
+	/**
+	 * @return Generated holder classes, by internal name.
+	 */
+	public Map<String, byte[]> getGeneratedClasses() {
+		return Collections.unmodifiableMap(classes);
+	}
+
+	/**
+	 * Adds the methods computing the constants used so far to the class.
+	 *
+	 * @param cv
+	 * 		Class to add to.
+	 */
+	public void visitMethods(ClassVisitor cv) {
+		// Interface methods must be either public or private
+		int access = (isInterface ? ACC_PUBLIC : 0) | ACC_STATIC | ACC_SYNTHETIC;
+		holders.forEach((constant, index) -> {
+			Handle bsm = constant.getBootstrapMethod();
+			Type[] parameters = Type.getArgumentTypes(bsm.getDesc());
+			Type constantType = Type.getType(constant.getDescriptor());
+			int directCount = getDirectArgumentCount(parameters, constant);
+			MethodVisitor mv = cv.visitMethod(access, METHOD_PREFIX + index, "()" + constantType.getDescriptor(), null, null);
+			mv.visitCode();
+			mv.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()" + LOOKUP.getDescriptor(), false);
+			mv.visitLdcInsn(constant.getName());
+			visitClassLiteral(mv, constantType);
+			for (int i = 0; i < directCount; i++)
+				visitArgument(mv, constant.getBootstrapMethodArgument(i), parameters[3 + i]);
+			int argumentCount = constant.getBootstrapMethodArgumentCount();
+			if (directCount < parameters.length - 3) {
+				// Trailing arguments are collected into the array of a variable arity bootstrap
+				Type componentType = getComponentType(parameters[parameters.length - 1]);
+				pushInt(mv, argumentCount - directCount);
+				visitNewArray(mv, componentType);
+				for (int i = directCount; i < argumentCount; i++) {
+					mv.visitInsn(DUP);
+					pushInt(mv, i - directCount);
+					visitArgument(mv, constant.getBootstrapMethodArgument(i), componentType);
+					mv.visitInsn(componentType.getOpcode(IASTORE));
+				}
+			}
+			mv.visitMethodInsn(INVOKESTATIC, bsm.getOwner(), bsm.getName(), bsm.getDesc(), bsm.isInterface());
+			LambdaClasses.convert(mv, Type.getReturnType(bsm.getDesc()), constantType);
+			mv.visitInsn(constantType.getOpcode(IRETURN));
+			mv.visitMaxs(3 + 2 * argumentCount + 4, 0);
+			mv.visitEnd();
+		});
+	}
+
+	private String getHolder(ConstantDynamic constant) {
+		Integer index = holders.get(constant);
+		if (index == null) {
+			// Constants in the arguments are numbered first, as their holders are referenced by this one
+			for (int i = 0; i < constant.getBootstrapMethodArgumentCount(); i++) {
+				Object argument = constant.getBootstrapMethodArgument(i);
+				if (argument instanceof ConstantDynamic)
+					getHolder((ConstantDynamic) argument);
+			}
+			index = holders.size();
+			holders.put(constant, index);
+			classes.put(getHolderName(index), generate(index, constant.getDescriptor()));
+		}
+		return getHolderName(index);
+	}
+
+	private String getHolderName(int index) {
+		return owner + CLASS_INFIX + index;
+	}
+
+	private byte[] generate(int index, String descriptor) {
+		String className = getHolderName(index);
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(classVersion, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, "java/lang/Object", null);
+		cw.visitField(ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, VALUE_FIELD, descriptor, null, null).visitEnd();
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitMethodInsn(INVOKESTATIC, owner, METHOD_PREFIX + index, "()" + descriptor, isInterface);
+		mv.visitFieldInsn(PUTSTATIC, className, VALUE_FIELD, descriptor);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(Type.getType(descriptor).getSize(), 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private void visitArgument(MethodVisitor mv, Object argument, Type parameterType) {
+		if (argument instanceof ConstantDynamic)
+			emitLoad(mv, (ConstantDynamic) argument);
+		else
+			mv.visitLdcInsn(argument);
+		LambdaClasses.convert(mv, getValueType(argument), parameterType);
+	}
+
+	private static void visitClassLiteral(MethodVisitor mv, Type type) {
+		if (type.getSort() < Type.ARRAY)
+			mv.visitFieldInsn(GETSTATIC, getWrapperName(type), "TYPE", CLASS.getDescriptor());
+		else
+			mv.visitLdcInsn(type);
+	}
+
+	private static void visitNewArray(MethodVisitor mv, Type componentType) {
+		switch (componentType.getSort()) {
+			case Type.BOOLEAN:
+				mv.visitIntInsn(NEWARRAY, T_BOOLEAN);
+				break;
+			case Type.CHAR:
+				mv.visitIntInsn(NEWARRAY, T_CHAR);
+				break;
+			case Type.BYTE:
+				mv.visitIntInsn(NEWARRAY, T_BYTE);
+				break;
+			case Type.SHORT:
+				mv.visitIntInsn(NEWARRAY, T_SHORT);
+				break;
+			case Type.INT:
+				mv.visitIntInsn(NEWARRAY, T_INT);
+				break;
+			case Type.FLOAT:
+				mv.visitIntInsn(NEWARRAY, T_FLOAT);
+				break;
+			case Type.LONG:
+				mv.visitIntInsn(NEWARRAY, T_LONG);
+				break;
+			case Type.DOUBLE:
+				mv.visitIntInsn(NEWARRAY, T_DOUBLE);
+				break;
+			default:
+				mv.visitTypeInsn(ANEWARRAY, componentType.getInternalName());
+				break;
+		}
+	}
+
+	/**
+	 * @param parameters
+	 * 		Parameter types of the bootstrap method.
+	 * @param constant
+	 * 		Dynamic constant to bootstrap.
+	 *
+	 * @return Number of constant arguments passed as their own parameter, with any others collected into
+	 * the trailing array parameter. {@code -1} when the arguments do not fit the parameters.
+	 */
+	private static int getDirectArgumentCount(Type[] parameters, ConstantDynamic constant) {
+		int argumentCount = constant.getBootstrapMethodArgumentCount();
+		int parameterCount = parameters.length - 3;
+		boolean trailingArray = parameterCount > 0 && parameters[parameters.length - 1].getSort() == Type.ARRAY;
+		// A matching count is passed as-is, unless the last argument is not an array and has to be collected
+		if (argumentCount == parameterCount && (!trailingArray ||
+				getValueType(constant.getBootstrapMethodArgument(argumentCount - 1)).getSort() == Type.ARRAY))
+			return argumentCount;
+		if (trailingArray && argumentCount >= parameterCount - 1)
+			return parameterCount - 1;
+		return -1;
+	}
+
+	private static Type getParameterType(Type[] parameters, int directCount, int argumentIndex) {
+		if (argumentIndex < directCount)
+			return parameters[3 + argumentIndex];
+		return getComponentType(parameters[parameters.length - 1]);
+	}
+
+	private static Type getComponentType(Type arrayType) {
+		return Type.getType(arrayType.getDescriptor().substring(1));
+	}
+
+	/**
+	 * @param argument
+	 * 		Bootstrap argument.
+	 *
+	 * @return Type of the argument's value when loaded with {@code ldc}.
+	 */
+	private static Type getValueType(Object argument) {
+		if (argument instanceof Integer)
+			return Type.INT_TYPE;
+		if (argument instanceof Float)
+			return Type.FLOAT_TYPE;
+		if (argument instanceof Long)
+			return Type.LONG_TYPE;
+		if (argument instanceof Double)
+			return Type.DOUBLE_TYPE;
+		if (argument instanceof String)
+			return STRING;
+		if (argument instanceof Handle)
+			return Type.getObjectType("java/lang/invoke/MethodHandle");
+		if (argument instanceof ConstantDynamic)
+			return Type.getType(((ConstantDynamic) argument).getDescriptor());
+		if (((Type) argument).getSort() == Type.METHOD)
+			return Type.getObjectType("java/lang/invoke/MethodType");
+		return CLASS;
+	}
+
+	/**
+	 * @param from
+	 * 		Type of a value.
+	 * @param to
+	 * 		Type to pass it as.
+	 *
+	 * @return {@code true} when {@link LambdaClasses#convert} can convert between the types.
+	 * Conversions of references are checked casts, so they are only known to succeed at runtime.
+	 */
+	private static boolean canConvert(Type from, Type to) {
+		if (from.equals(to))
+			return true;
+		boolean fromPrimitive = from.getSort() < Type.ARRAY;
+		boolean toPrimitive = to.getSort() < Type.ARRAY;
+		if (fromPrimitive && toPrimitive) {
+			// Only widening conversions are allowed
+			switch (from.getSort()) {
+				case Type.INT:
+					return to.getSort() == Type.LONG || to.getSort() == Type.FLOAT || to.getSort() == Type.DOUBLE;
+				case Type.LONG:
+					return to.getSort() == Type.FLOAT || to.getSort() == Type.DOUBLE;
+				case Type.FLOAT:
+					return to.getSort() == Type.DOUBLE;
+				default:
+					return false;
+			}
+		}
+		if (fromPrimitive) {
+			// Boxed values are not cast, so the target must be a super-type of the wrapper
+			switch (to.getInternalName()) {
+				case "java/lang/Object":
+				case "java/io/Serializable":
+				case "java/lang/Comparable":
+					return true;
+				case "java/lang/Number":
+					return from.getSort() != Type.BOOLEAN && from.getSort() != Type.CHAR;
+				default:
+					return to.getInternalName().equals(getWrapperName(from));
+			}
+		}
+		return true;
+	}
+
+	private static String getWrapperName(Type primitive) {
+		switch (primitive.getSort()) {
+			case Type.BOOLEAN:
+				return "java/lang/Boolean";
+			case Type.CHAR:
+				return "java/lang/Character";
+			case Type.BYTE:
+				return "java/lang/Byte";
+			case Type.SHORT:
+				return "java/lang/Short";
+			case Type.INT:
+				return "java/lang/Integer";
+			case Type.FLOAT:
+				return "java/lang/Float";
+			case Type.LONG:
+				return "java/lang/Long";
+			default:
+				return "java/lang/Double";
+		}
+	}
+
+	private static void pushInt(MethodVisitor mv, int value) {
+		if (value <= 5)
+			mv.visitInsn(ICONST_0 + value);
+		else if (value <= Byte.MAX_VALUE)
+			mv.visitIntInsn(BIPUSH, value);
+		else
+			mv.visitIntInsn(SIPUSH, value);
+	}
+}
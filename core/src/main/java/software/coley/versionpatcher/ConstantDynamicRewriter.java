@@ -0,0 +1,44 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A method visitor that replaces loads of dynamic constants with reads of their
+ * {@link ConstantDynamicHolders lazily initialized holders}, so that they run on versions before Java 11.
+ *
+ * @author Matt Coley
+ */
+public class ConstantDynamicRewriter extends MethodVisitor implements Opcodes {
+	private final ConstantDynamicHolders holders;
+	private int replaced;
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param holders
+	 * 		Constant holders of the declaring class.
+	 */
+	public ConstantDynamicRewriter(MethodVisitor mv, ConstantDynamicHolders holders) {
+		super(Opcodes.ASM9, mv);
+		this.holders = holders;
+	}
+
+	/**
+	 * @return Number of replaced constant loads.
+	 */
+	public int getReplaced() {
+		return replaced;
+	}
+
+	@Override
+	public void visitLdcInsn(Object value) {
+		if (value instanceof ConstantDynamic && holders.canLower((ConstantDynamic) value)) {
+			holders.emitLoad(mv, (ConstantDynamic) value);
+			replaced++;
+		} else {
+			super.visitLdcInsn(value);
+		}
+	}
+}
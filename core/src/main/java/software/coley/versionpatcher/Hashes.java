@@ -0,0 +1,81 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashing utilities.
+ *
+ * @author Matt Coley
+ */
+public final class Hashes {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(Hashes::newSha256);
+
+	private Hashes() {
+	}
+
+	/**
+	 * @return New SHA-256 digest.
+	 */
+	public static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * @param content
+	 * 		Content to hash.
+	 *
+	 * @return Hex encoded SHA-256 of the content.
+	 */
+	public static String sha256(byte[] content) {
+		MessageDigest digest = SHA_256.get();
+		digest.reset();
+		return toHex(digest.digest(content));
+	}
+
+	/**
+	 * @param file
+	 * 		File to hash.
+	 *
+	 * @return Hex encoded SHA-256 of the file content.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be read.
+	 */
+	public static String sha256(Path file) throws IOException {
+		MessageDigest digest = SHA_256.get();
+		digest.reset();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param bytes
+	 * 		Bytes to encode.
+	 *
+	 * @return Lower case hex encoding of the bytes.
+	 */
+	public static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,266 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Patches the classes of a jar into a new jar. Other entries, and classes that did not need patching,
+ * are copied without being decompressed and compressed again.
+ * <br>
+ * Entries are streamed through three stages: a reader thread reads entries in order, the {@link PatchEngine}
+ * patches and compresses classes in parallel, and the calling thread writes the results in the original order.
+ * The stages are connected by a bounded queue, and the total size of classes that have been read but not yet
+ * written is limited to a memory budget. When either limit is reached the reader waits for the writer,
+ * so jars of any size can be patched with a fixed amount of memory.
+ * <br>
+ * When the options are {@link PatchOptions#isReproducible() reproducible}, entries are written sorted by name,
+ * with the manifest first, and all given the same {@link PatchOptions#getOutputTimestamp() time}.
+ * Classes generated while patching a class are not part of that sort, they are written directly after the class
+ * that produced them in the order they were generated. The output is still the same for the same input.
+ *
+ * @author Matt Coley
+ */
+public class JarPatcher {
+	private static final int DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+	private static final int MIN_QUEUE_CAPACITY = 16;
+	// The manifest must come first for streaming jar readers to find it
+	private static final Comparator<ZipArchive.Entry> REPRODUCIBLE_ORDER =
+			Comparator.comparingInt(JarPatcher::getReproducibleRank).thenComparing(ZipArchive.Entry::getName);
+	private final PatchEngine engine;
+	private final int memoryBudget;
+
+	/**
+	 * @param engine
+	 * 		Engine to patch classes with.
+	 */
+	public JarPatcher(PatchEngine engine) {
+		this(engine, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param engine
+	 * 		Engine to patch classes with.
+	 * @param memoryBudget
+	 * 		Maximum total size in bytes of classes read but not yet written.
+	 */
+	public JarPatcher(PatchEngine engine, int memoryBudget) {
+		this.engine = engine;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param input
+	 * 		Jar to read from.
+	 * @param output
+	 * 		Jar to write to. Entries are written in the same order as the input, unless reproducible.
+	 * 		Generated classes follow the class they were generated for.
+	 * @param failureHandler
+	 * 		Called when a class cannot be patched. May be called from multiple threads.
+	 * 		Classes that cannot be patched are copied as-is.
+	 *
+	 * @return Summary of the work done.
+	 *
+	 * @throws IOException
+	 * 		When the input cannot be read, or the output cannot be written.
+	 */
+	public PatchReport patch(Path input, Path output, BiConsumer<ClassSource, Exception> failureHandler) throws IOException {
+		PatchReport report = new PatchReport();
+		int queueCapacity = Math.max(MIN_QUEUE_CAPACITY, engine.getOptions().getEffectiveParallelism() * 4);
+		BlockingQueue<PendingEntry> queue = new ArrayBlockingQueue<>(queueCapacity);
+		Semaphore budget = new Semaphore(memoryBudget);
+		PatchOptions options = engine.getOptions();
+		int dosTime = options.isReproducible() ? ZipArchiveWriter.toDosTime(options.getOutputTimestamp()) : -1;
+		try (ZipArchive archive = ZipArchive.open(input)) {
+			List<ZipArchive.Entry> entries = archive.getEntries();
+			if (options.isReproducible()) {
+				entries = new ArrayList<>(entries);
+				entries.sort(REPRODUCIBLE_ORDER);
+			}
+			List<ZipArchive.Entry> readOrder = entries;
+			Thread reader = new Thread(() -> read(archive, readOrder, dosTime, queue, budget, report, failureHandler),
+					"JarPatcher-reader-" + input.getFileName());
+			reader.setDaemon(true);
+			reader.start();
+			try (ZipArchiveWriter writer = new ZipArchiveWriter(output)) {
+				write(archive, writer, dosTime, queue, budget);
+			} finally {
+				// Unblock the reader if writing ended early
+				reader.interrupt();
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Reads entries in order, submitting classes to the engine and passing them on to the writer.
+	 */
+	private void read(ZipArchive archive, List<ZipArchive.Entry> entries, int dosTime,
+					  BlockingQueue<PendingEntry> queue, Semaphore budget,
+					  PatchReport report, BiConsumer<ClassSource, Exception> failureHandler) {
+		try {
+			try {
+				for (ZipArchive.Entry entry : entries) {
+					if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+						queue.put(new PendingEntry(entry, null, null, 0, null));
+						continue;
+					}
+					byte[] bytecode = archive.read(entry);
+					// Entries larger than the whole budget are allowed through on their own
+					int permits = Math.min(bytecode.length, memoryBudget);
+					budget.acquire(permits);
+					JarClassSource source = new JarClassSource(entry, dosTime < 0 ? entry.getDosTime() : dosTime, bytecode);
+					// Compress on the same thread right after patching, so compression is also spread over all threads
+					CompletableFuture<Void> future = engine.patchAsync(source, report, failureHandler)
+							.thenRun(source::compress);
+					queue.put(new PendingEntry(entry, source, future, permits, null));
+				}
+				queue.put(PendingEntry.END);
+			} catch (IOException | RuntimeException | Error ex) {
+				// Includes errors thrown by the failure handler, which would otherwise leave the writer waiting
+				queue.put(new PendingEntry(null, null, null, 0, ex));
+			}
+		} catch (InterruptedException ex) {
+			// Writer stopped early, nothing left to do
+		}
+	}
+
+	/**
+	 * Writes entries in the order they were read, waiting on each class to finish patching.
+	 */
+	private static void write(ZipArchive archive, ZipArchiveWriter writer, int dosTime,
+							  BlockingQueue<PendingEntry> queue, Semaphore budget) throws IOException {
+		while (true) {
+			PendingEntry pending;
+			try {
+				pending = queue.take();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while writing jar");
+			}
+			if (pending == PendingEntry.END)
+				return;
+			if (pending.failure instanceof IOException)
+				throw (IOException) pending.failure;
+			if (pending.failure instanceof Error)
+				throw (Error) pending.failure;
+			if (pending.failure != null)
+				throw (RuntimeException) pending.failure;
+			ZipArchive.Entry entry = pending.entry;
+			JarClassSource source = pending.source;
+			if (source != null) {
+				pending.future.join();
+				budget.release(pending.permits);
+			}
+			// Only classes that were changed were compressed, everything else is copied as-is
+			if (source != null && source.compressed != null)
+				writer.write(source.compressed);
+			else
+				writer.writeRaw(entry, dosTime < 0 ? entry.getDosTime() : dosTime, archive.readRaw(entry));
+			// Classes generated for a class directly follow it
+			if (source != null)
+				for (ZipArchiveWriter.CompressedEntry generated : source.generated)
+					writer.write(generated);
+		}
+	}
+
+	private static int getReproducibleRank(ZipArchive.Entry entry) {
+		String name = entry.getName();
+		if (name.equalsIgnoreCase("META-INF/"))
+			return 0;
+		if (name.equalsIgnoreCase("META-INF/MANIFEST.MF"))
+			return 1;
+		return 2;
+	}
+
+	/**
+	 * Entry read from the input, waiting to be written.
+	 */
+	private static class PendingEntry {
+		private static final PendingEntry END = new PendingEntry(null, null, null, 0, null);
+		private final ZipArchive.Entry entry;
+		private final JarClassSource source;
+		private final CompletableFuture<Void> future;
+		private final int permits;
+		private final Throwable failure;
+
+		private PendingEntry(ZipArchive.Entry entry, JarClassSource source, CompletableFuture<Void> future,
+							 int permits, Throwable failure) {
+			this.entry = entry;
+			this.source = source;
+			this.future = future;
+			this.permits = permits;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Class source over the content of a jar entry, holding the patched output until it is written.
+	 */
+	private static class JarClassSource implements ClassSource {
+		private final ZipArchive.Entry entry;
+		private final int dosTime;
+		private final byte[] input;
+		private final List<ZipArchiveWriter.CompressedEntry> generated = new ArrayList<>();
+		private byte[] output;
+		private ZipArchiveWriter.CompressedEntry compressed;
+
+		private JarClassSource(ZipArchive.Entry entry, int dosTime, byte[] input) {
+			this.entry = entry;
+			this.dosTime = dosTime;
+			this.input = input;
+		}
+
+		/**
+		 * Compresses the patched output, if the class was changed.
+		 */
+		private void compress() {
+			if (output != null && output != input) {
+				compressed = ZipArchiveWriter.compress(entry.getName(), dosTime, output);
+				output = null;
+			}
+		}
+
+		@Override
+		public String getName() {
+			return entry.getName();
+		}
+
+		@Override
+		public byte[] read() {
+			return input;
+		}
+
+		@Override
+		public int readMajorVersion() {
+			return ClassHeader.getMajorVersion(input);
+		}
+
+		@Override
+		public void write(byte[] bytecode) {
+			output = bytecode;
+		}
+
+		@Override
+		public void writeGenerated(String internalName, byte[] bytecode) {
+			String name = entry.getName();
+			String simpleName = internalName.substring(internalName.lastIndexOf('/') + 1);
+			// Generated classes are small and rare, so they are compressed right away
+			generated.add(ZipArchiveWriter.compress(name.substring(0, name.lastIndexOf('/') + 1) + simpleName + ".class",
+					dosTime, bytecode));
+		}
+
+		@Override
+		public void passThrough() {
+			// Copied from the input when written
+		}
+	}
+}
@@ -0,0 +1,446 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Classes generated for the desugared lambdas of a class, replacing {@code LambdaMetafactory} call sites.
+ * Each call site gets a final {@code Owner$$Lambda$N} class in the same package, implementing the functional interface.
+ * Non-capturing lambdas share a single instance of their class, capturing lambdas are created through a static factory.
+ * <br>
+ * Implementation methods declared in the class itself may be private, so they are called through synthetic static
+ * {@code access$lambda$N} methods added to the class. Classes and accessors are numbered in the order their call sites
+ * are first seen, so the output is stable for the same input.
+ *
+ * @author Matt Coley
+ */
+public class LambdaClasses implements Opcodes {
+	private static final String METAFACTORY_OWNER = "java/lang/invoke/LambdaMetafactory";
+	private static final String CLASS_INFIX = "$$Lambda$";
+	private static final String ACCESSOR_PREFIX = "access$lambda$";
+	private static final String INSTANCE_FIELD = "INSTANCE";
+	private static final String FACTORY_METHOD = "get$Lambda";
+	// Flags of altMetafactory
+	private static final int FLAG_SERIALIZABLE = 1;
+	private static final int FLAG_MARKERS = 2;
+	private static final int FLAG_BRIDGES = 4;
+	private final Map<List<Object>, String> callSiteClasses = new HashMap<>();
+	private final Map<String, byte[]> classes = new LinkedHashMap<>();
+	private final Map<Handle, String> accessors = new LinkedHashMap<>();
+	private final String owner;
+	private final boolean isInterface;
+	private final int classVersion;
+
+	/**
+	 * @param owner
+	 * 		Internal name of the class declaring the lambdas.
+	 * @param isInterface
+	 * 		Whether the class is an interface.
+	 * @param classVersion
+	 * 		Class file version of the patched class, also used for the generated classes.
+	 */
+	public LambdaClasses(String owner, boolean isInterface, int classVersion) {
+		this.owner = owner;
+		this.isInterface = isInterface;
+		this.classVersion = classVersion;
+	}
+
+	/**
+	 * @param bsmHandle
+	 * 		Bootstrap method handle of an invoke-dynamic instruction.
+	 *
+	 * @return {@code true} when the handle is {@code LambdaMetafactory.metafactory} or {@code altMetafactory}.
+	 */
+	public static boolean isLambdaMetafactory(Handle bsmHandle) {
+		return METAFACTORY_OWNER.equals(bsmHandle.getOwner()) &&
+				("metafactory".equals(bsmHandle.getName()) || "altMetafactory".equals(bsmHandle.getName()));
+	}
+
+	/**
+	 * @param bsmHandle
+	 * 		Bootstrap method handle of an invoke-dynamic instruction.
+	 * @param bsmArgs
+	 * 		Bootstrap arguments of the instruction.
+	 *
+	 * @return {@code true} when the call site can be replaced by a generated class.
+	 * Serializable lambdas are left as-is, since deserializing them relies on the metafactory.
+	 */
+	public boolean canDesugar(Handle bsmHandle, Object[] bsmArgs) {
+		if (!isLambdaMetafactory(bsmHandle))
+			return false;
+		if ("altMetafactory".equals(bsmHandle.getName()) && ((Integer) bsmArgs[3] & FLAG_SERIALIZABLE) != 0)
+			return false;
+		// Accessors in interfaces are public static methods, which interfaces cannot have before Java 8
+		Handle implementation = (Handle) bsmArgs[1];
+		return !isInterface || classVersion >= V1_8 || !owner.equals(implementation.getOwner());
+	}
+
+	/**
+	 * Emits code creating the lambda, in place of its invoke-dynamic instruction.
+	 * Captured arguments are consumed from the stack, leaving the functional interface instance.
+	 *
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param name
+	 * 		Name of the invoke-dynamic instruction, which is the name of the functional interface method.
+	 * @param descriptor
+	 * 		Descriptor of the invoke-dynamic instruction, taking the captured arguments.
+	 * @param bsmArgs
+	 * 		Bootstrap arguments of the instruction.
+	 */
+	public void emitCall(MethodVisitor mv, String name, String descriptor, Object[] bsmArgs) {
+		List<Object> key = Arrays.asList(name, descriptor, Arrays.asList(bsmArgs));
+		String className = callSiteClasses.get(key);
+		if (className == null) {
+			className = owner + CLASS_INFIX + (classes.size() + 1);
+			classes.put(className, generate(className, name, descriptor, bsmArgs));
+			callSiteClasses.put(key, className);
+		}
+		Type callSiteType = Type.getMethodType(descriptor);
+		if (callSiteType.getArgumentTypes().length == 0)
+			mv.visitFieldInsn(GETSTATIC, className, INSTANCE_FIELD, callSiteType.getReturnType().getDescriptor());
+		else
+			mv.visitMethodInsn(INVOKESTATIC, className, FACTORY_METHOD, descriptor, false);
+	}
+
+	/**
+	 * @return Generated classes, by internal name.
+	 */
+	public Map<String, byte[]> getGeneratedClasses() {
+		return Collections.unmodifiableMap(classes);
+	}
+
+	/**
+	 * Adds the accessors used so far to the class.
+	 *
+	 * @param cv
+	 * 		Class to add to.
+	 */
+	public void visitAccessors(ClassVisitor cv) {
+		// Interface methods must be either public or private
+		int access = (isInterface ? ACC_PUBLIC : 0) | ACC_STATIC | ACC_SYNTHETIC;
+		accessors.forEach((implementation, name) -> {
+			Type type = getInvocationType(implementation);
+			MethodVisitor mv = cv.visitMethod(access, name, type.getDescriptor(), null, null);
+			mv.visitCode();
+			int argumentSize = getArgumentSize(type.getArgumentTypes());
+			emitInvocation(mv, implementation, () -> {
+				int local = 0;
+				for (Type argument : type.getArgumentTypes()) {
+					mv.visitVarInsn(argument.getOpcode(ILOAD), local);
+					local += argument.getSize();
+				}
+			});
+			mv.visitInsn(type.getReturnType().getOpcode(IRETURN));
+			mv.visitMaxs(Math.max(2 + argumentSize, type.getReturnType().getSize()), argumentSize);
+			mv.visitEnd();
+		});
+	}
+
+	private byte[] generate(String className, String name, String descriptor, Object[] bsmArgs) {
+		Type callSiteType = Type.getMethodType(descriptor);
+		Type[] captured = callSiteType.getArgumentTypes();
+		Type interfaceType = callSiteType.getReturnType();
+		Type samType = (Type) bsmArgs[0];
+		Handle implementation = (Handle) bsmArgs[1];
+		Type instantiatedType = (Type) bsmArgs[2];
+		Set<String> interfaces = new LinkedHashSet<>();
+		interfaces.add(interfaceType.getInternalName());
+		Set<Type> bridges = new LinkedHashSet<>();
+		if (bsmArgs.length > 3) {
+			int flags = (Integer) bsmArgs[3];
+			int i = 4;
+			if ((flags & FLAG_MARKERS) != 0) {
+				int count = (Integer) bsmArgs[i++];
+				while (count-- > 0)
+					interfaces.add(((Type) bsmArgs[i++]).getInternalName());
+			}
+			if ((flags & FLAG_BRIDGES) != 0) {
+				int count = (Integer) bsmArgs[i++];
+				while (count-- > 0)
+					bridges.add((Type) bsmArgs[i++]);
+			}
+			bridges.remove(samType);
+		}
+		// Private members of the declaring class are only reachable through an accessor
+		Handle target = implementation;
+		if (owner.equals(implementation.getOwner())) {
+			String accessor = accessors.computeIfAbsent(implementation, h -> ACCESSOR_PREFIX + accessors.size());
+			target = new Handle(H_INVOKESTATIC, owner, accessor, getInvocationType(implementation).getDescriptor(), isInterface);
+		}
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(classVersion, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, "java/lang/Object",
+				interfaces.toArray(new String[0]));
+		for (int i = 0; i < captured.length; i++)
+			cw.visitField(ACC_PRIVATE | ACC_FINAL, "arg$" + (i + 1), captured[i].getDescriptor(), null, null).visitEnd();
+		visitConstructor(cw, className, captured);
+		if (captured.length == 0)
+			visitInstance(cw, className, interfaceType);
+		else
+			visitFactory(cw, className, descriptor, captured);
+		visitImplementation(cw, ACC_PUBLIC, className, name, samType, captured, target, instantiatedType);
+		for (Type bridge : bridges)
+			visitImplementation(cw, ACC_PUBLIC | ACC_BRIDGE | ACC_SYNTHETIC, className, name, bridge, captured, target, instantiatedType);
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void visitConstructor(ClassVisitor cv, String className, Type[] captured) {
+		MethodVisitor mv = cv.visitMethod(ACC_PRIVATE, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, captured), null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		int local = 1;
+		for (int i = 0; i < captured.length; i++) {
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(captured[i].getOpcode(ILOAD), local);
+			mv.visitFieldInsn(PUTFIELD, className, "arg$" + (i + 1), captured[i].getDescriptor());
+			local += captured[i].getSize();
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(3, local);
+		mv.visitEnd();
+	}
+
+	private static void visitInstance(ClassVisitor cv, String className, Type interfaceType) {
+		cv.visitField(ACC_STATIC | ACC_FINAL, INSTANCE_FIELD, interfaceType.getDescriptor(), null, null).visitEnd();
+		MethodVisitor mv = cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, className);
+		mv.visitInsn(DUP);
+		mv.visitMethodInsn(INVOKESPECIAL, className, "<init>", "()V", false);
+		mv.visitFieldInsn(PUTSTATIC, className, INSTANCE_FIELD, interfaceType.getDescriptor());
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(2, 0);
+		mv.visitEnd();
+	}
+
+	private static void visitFactory(ClassVisitor cv, String className, String descriptor, Type[] captured) {
+		MethodVisitor mv = cv.visitMethod(ACC_STATIC, FACTORY_METHOD, descriptor, null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, className);
+		mv.visitInsn(DUP);
+		int local = 0;
+		for (Type type : captured) {
+			mv.visitVarInsn(type.getOpcode(ILOAD), local);
+			local += type.getSize();
+		}
+		mv.visitMethodInsn(INVOKESPECIAL, className, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, captured), false);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(2 + local, local);
+		mv.visitEnd();
+	}
+
+	private static void visitImplementation(ClassVisitor cv, int access, String className, String name, Type methodType,
+											Type[] captured, Handle target, Type instantiatedType) {
+		MethodVisitor mv = cv.visitMethod(access, name, methodType.getDescriptor(), null, null);
+		mv.visitCode();
+		Type targetType = getInvocationType(target);
+		Type[] targetArguments = targetType.getArgumentTypes();
+		Type[] arguments = methodType.getArgumentTypes();
+		Type[] instantiatedArguments = instantiatedType.getArgumentTypes();
+		emitInvocation(mv, target, () -> {
+			for (int i = 0; i < captured.length; i++) {
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitFieldInsn(GETFIELD, className, "arg$" + (i + 1), captured[i].getDescriptor());
+				convert(mv, captured[i], targetArguments[i]);
+			}
+			int local = 1;
+			for (int i = 0; i < arguments.length; i++) {
+				mv.visitVarInsn(arguments[i].getOpcode(ILOAD), local);
+				convert(mv, arguments[i], instantiatedArguments[i]);
+				convert(mv, instantiatedArguments[i], targetArguments[captured.length + i]);
+				local += arguments[i].getSize();
+			}
+		});
+		Type returnType = methodType.getReturnType();
+		if (returnType.getSort() == Type.VOID) {
+			if (targetType.getReturnType().getSize() == 2)
+				mv.visitInsn(POP2);
+			else if (targetType.getReturnType().getSize() == 1)
+				mv.visitInsn(POP);
+		} else {
+			convert(mv, targetType.getReturnType(), instantiatedType.getReturnType());
+			convert(mv, instantiatedType.getReturnType(), returnType);
+		}
+		mv.visitInsn(returnType.getOpcode(IRETURN));
+		// Arguments take at most two slots each after conversion, plus two for a new instance
+		mv.visitMaxs(2 + 2 * targetArguments.length, 1 + getArgumentSize(arguments));
+		mv.visitEnd();
+	}
+
+	/**
+	 * @param handle
+	 * 		Implementation method handle.
+	 *
+	 * @return Type of the handle as a static method, taking the receiver first and returning any created instance.
+	 */
+	private static Type getInvocationType(Handle handle) {
+		Type type = Type.getMethodType(handle.getDesc());
+		switch (handle.getTag()) {
+			case H_INVOKESTATIC:
+				return type;
+			case H_NEWINVOKESPECIAL:
+				return Type.getMethodType(Type.getObjectType(handle.getOwner()), type.getArgumentTypes());
+			default:
+				Type[] arguments = new Type[type.getArgumentTypes().length + 1];
+				arguments[0] = Type.getObjectType(handle.getOwner());
+				System.arraycopy(type.getArgumentTypes(), 0, arguments, 1, arguments.length - 1);
+				return Type.getMethodType(type.getReturnType(), arguments);
+		}
+	}
+
+	/**
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param handle
+	 * 		Implementation method handle.
+	 * @param argumentLoader
+	 * 		Emits code pushing the arguments of the {@link #getInvocationType(Handle) invocation type}.
+	 */
+	private static void emitInvocation(MethodVisitor mv, Handle handle, Runnable argumentLoader) {
+		int opcode;
+		switch (handle.getTag()) {
+			case H_INVOKESTATIC:
+				opcode = INVOKESTATIC;
+				break;
+			case H_INVOKEVIRTUAL:
+				opcode = INVOKEVIRTUAL;
+				break;
+			case H_INVOKEINTERFACE:
+				opcode = INVOKEINTERFACE;
+				break;
+			case H_NEWINVOKESPECIAL:
+				mv.visitTypeInsn(NEW, handle.getOwner());
+				mv.visitInsn(DUP);
+				opcode = INVOKESPECIAL;
+				break;
+			default:
+				opcode = INVOKESPECIAL;
+				break;
+		}
+		argumentLoader.run();
+		mv.visitMethodInsn(opcode, handle.getOwner(), handle.getName(), handle.getDesc(), handle.isInterface());
+	}
+
+	/**
+	 * Emits the conversion {@code LambdaMetafactory} applies between the types of the interface method
+	 * and the implementation method: widening, boxing, unboxing and casts.
+	 *
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param from
+	 * 		Type of the value on the stack.
+	 * @param to
+	 * 		Type to convert to.
+	 */
+	static void convert(MethodVisitor mv, Type from, Type to) {
+		if (from.equals(to) || to.getSort() == Type.VOID)
+			return;
+		boolean fromPrimitive = from.getSort() < Type.ARRAY;
+		boolean toPrimitive = to.getSort() < Type.ARRAY;
+		if (fromPrimitive && toPrimitive) {
+			widen(mv, from, to);
+		} else if (fromPrimitive) {
+			// The target is some super-type of the wrapper, so no cast is needed
+			Type wrapper = getWrapper(from);
+			mv.visitMethodInsn(INVOKESTATIC, wrapper.getInternalName(), "valueOf",
+					Type.getMethodDescriptor(wrapper, from), false);
+		} else if (toPrimitive) {
+			Type primitive = getPrimitive(from);
+			Type wrapper = from;
+			if (primitive == null) {
+				primitive = to;
+				wrapper = getWrapper(to);
+				mv.visitTypeInsn(CHECKCAST, wrapper.getInternalName());
+			}
+			mv.visitMethodInsn(INVOKEVIRTUAL, wrapper.getInternalName(), primitive.getClassName() + "Value",
+					"()" + primitive.getDescriptor(), false);
+			widen(mv, primitive, to);
+		} else if (!to.getDescriptor().equals("Ljava/lang/Object;")) {
+			mv.visitTypeInsn(CHECKCAST, to.getInternalName());
+		}
+	}
+
+	private static void widen(MethodVisitor mv, Type from, Type to) {
+		int fromSort = from.getSort() <= Type.INT ? Type.INT : from.getSort();
+		int toSort = to.getSort() <= Type.INT ? Type.INT : to.getSort();
+		if (fromSort == toSort)
+			return;
+		switch (fromSort) {
+			case Type.INT:
+				mv.visitInsn(toSort == Type.LONG ? I2L : toSort == Type.FLOAT ? I2F : I2D);
+				break;
+			case Type.LONG:
+				mv.visitInsn(toSort == Type.FLOAT ? L2F : L2D);
+				break;
+			default:
+				mv.visitInsn(F2D);
+				break;
+		}
+	}
+
+	private static Type getWrapper(Type primitive) {
+		switch (primitive.getSort()) {
+			case Type.BOOLEAN:
+				return Type.getObjectType("java/lang/Boolean");
+			case Type.CHAR:
+				return Type.getObjectType("java/lang/Character");
+			case Type.BYTE:
+				return Type.getObjectType("java/lang/Byte");
+			case Type.SHORT:
+				return Type.getObjectType("java/lang/Short");
+			case Type.INT:
+				return Type.getObjectType("java/lang/Integer");
+			case Type.FLOAT:
+				return Type.getObjectType("java/lang/Float");
+			case Type.LONG:
+				return Type.getObjectType("java/lang/Long");
+			default:
+				return Type.getObjectType("java/lang/Double");
+		}
+	}
+
+	private static Type getPrimitive(Type wrapper) {
+		switch (wrapper.getInternalName()) {
+			case "java/lang/Boolean":
+				return Type.BOOLEAN_TYPE;
+			case "java/lang/Character":
+				return Type.CHAR_TYPE;
+			case "java/lang/Byte":
+				return Type.BYTE_TYPE;
+			case "java/lang/Short":
+				return Type.SHORT_TYPE;
+			case "java/lang/Integer":
+				return Type.INT_TYPE;
+			case "java/lang/Float":
+				return Type.FLOAT_TYPE;
+			case "java/lang/Long":
+				return Type.LONG_TYPE;
+			case "java/lang/Double":
+				return Type.DOUBLE_TYPE;
+			default:
+				return null;
+		}
+	}
+
+	private static int getArgumentSize(Type[] arguments) {
+		int size = 0;
+		for (Type argument : arguments)
+			size += argument.getSize();
+		return size;
+	}
+}
@@ -0,0 +1,44 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A method visitor that replaces {@code LambdaMetafactory} call sites with the {@link LambdaClasses generated classes}
+ * of their lambdas, so that they do not need to be linked and spun at runtime.
+ *
+ * @author Matt Coley
+ */
+public class LambdaIndyRewriter extends MethodVisitor implements Opcodes {
+	private final LambdaClasses lambdaClasses;
+	private int replaced;
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param lambdaClasses
+	 * 		Generated lambda classes of the declaring class.
+	 */
+	public LambdaIndyRewriter(MethodVisitor mv, LambdaClasses lambdaClasses) {
+		super(Opcodes.ASM9, mv);
+		this.lambdaClasses = lambdaClasses;
+	}
+
+	/**
+	 * @return Number of replaced lambda call sites.
+	 */
+	public int getReplaced() {
+		return replaced;
+	}
+
+	@Override
+	public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsmHandle, Object... bsmArgs) {
+		if (lambdaClasses.canDesugar(bsmHandle, bsmArgs)) {
+			lambdaClasses.emitCall(mv, name, descriptor, bsmArgs);
+			replaced++;
+		} else {
+			super.visitInvokeDynamicInsn(name, descriptor, bsmHandle, bsmArgs);
+		}
+	}
+}
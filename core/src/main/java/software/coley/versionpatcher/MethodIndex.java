@@ -0,0 +1,146 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records which methods of a class contain content that {@link VersionPatcher} needs to rewrite.
+ * This allows all other methods to be copied as-is when the output writer shares the reader's constant pool.
+ *
+ * @author Matt Coley
+ */
+public class MethodIndex extends ClassVisitor {
+	// Method name and descriptor to max locals, of methods with string concatenation
+	private final Map<String, Integer> concatMethods = new HashMap<>();
+	// Method name and descriptor, of methods with lambdas
+	private final Set<String> lambdaMethods = new HashSet<>();
+	// Method name and descriptor, of methods with pattern or enum switches
+	private final Set<String> switchMethods = new HashSet<>();
+	// Method name and descriptor, of methods loading dynamic constants
+	private final Set<String> constantDynamicMethods = new HashSet<>();
+
+	private MethodIndex() {
+		super(Opcodes.ASM9);
+	}
+
+	/**
+	 * @return Index with no methods requiring rewrites.
+	 */
+	public static MethodIndex empty() {
+		return new MethodIndex();
+	}
+
+	/**
+	 * Populates an index from a class. Debug information and frames are skipped, making this much cheaper than
+	 * a full visit of the class.
+	 *
+	 * @param reader
+	 * 		Class to index.
+	 *
+	 * @return Index of the class's methods.
+	 */
+	public static MethodIndex scan(ClassReader reader) {
+		MethodIndex index = new MethodIndex();
+		reader.accept(index, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return index;
+	}
+
+	/**
+	 * @param name
+	 * 		Method name.
+	 * @param descriptor
+	 * 		Method descriptor.
+	 *
+	 * @return {@code true} when the method contains Java 9+ string concatenation.
+	 */
+	public boolean hasStringConcat(String name, String descriptor) {
+		return concatMethods.containsKey(name + descriptor);
+	}
+
+	/**
+	 * @param name
+	 * 		Method name.
+	 * @param descriptor
+	 * 		Method descriptor.
+	 *
+	 * @return Max locals of the method, or {@code -1} when the method does not contain Java 9+ string concatenation.
+	 */
+	public int getMaxLocals(String name, String descriptor) {
+		return concatMethods.getOrDefault(name + descriptor, -1);
+	}
+
+	/**
+	 * @param name
+	 * 		Method name.
+	 * @param descriptor
+	 * 		Method descriptor.
+	 *
+	 * @return {@code true} when the method contains {@code LambdaMetafactory} call sites.
+	 */
+	public boolean hasLambda(String name, String descriptor) {
+		return lambdaMethods.contains(name + descriptor);
+	}
+
+	/**
+	 * @param name
+	 * 		Method name.
+	 * @param descriptor
+	 * 		Method descriptor.
+	 *
+	 * @return {@code true} when the method contains {@code SwitchBootstraps} call sites.
+	 */
+	public boolean hasSwitchBootstrap(String name, String descriptor) {
+		return switchMethods.contains(name + descriptor);
+	}
+
+	/**
+	 * @param name
+	 * 		Method name.
+	 * @param descriptor
+	 * 		Method descriptor.
+	 *
+	 * @return {@code true} when the method loads {@code CONSTANT_Dynamic} constants.
+	 */
+	public boolean hasConstantDynamic(String name, String descriptor) {
+		return constantDynamicMethods.contains(name + descriptor);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		String key = name + descriptor;
+		return new MethodVisitor(Opcodes.ASM9) {
+			private boolean stringConcat;
+
+			@Override
+			public void visitInvokeDynamicInsn(String indyName, String indyDescriptor, Handle bsmHandle, Object... bsmArgs) {
+				if (StringIndyRewriter.isStringConcat(indyName))
+					stringConcat = true;
+				else if (LambdaClasses.isLambdaMetafactory(bsmHandle))
+					lambdaMethods.add(key);
+				else if (SwitchHelpers.isSwitchBootstrap(bsmHandle))
+					switchMethods.add(key);
+			}
+
+			@Override
+			public void visitLdcInsn(Object value) {
+				if (value instanceof ConstantDynamic)
+					constantDynamicMethods.add(key);
+			}
+
+			@Override
+			public void visitMaxs(int maxStack, int maxLocals) {
+				if (stringConcat)
+					concatMethods.put(key, maxLocals);
+			}
+		};
+	}
+}
@@ -0,0 +1,412 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Patches batches of classes in parallel with a {@link VersionPatcher}.
+ * <br>
+ * A single engine can be shared between threads, and should be {@link #close() closed} once no longer needed.
+ *
+ * @author Matt Coley
+ */
+public class PatchEngine implements AutoCloseable {
+	private static final int SPLIT_THRESHOLD = 16;
+	private static final String PATCHER_VERSION = loadPatcherVersion();
+	private final PatchOptions options;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param options
+	 * 		Patching configuration.
+	 */
+	public PatchEngine(PatchOptions options) {
+		this.options = options;
+		int parallelism = options.getEffectiveParallelism();
+		pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	/**
+	 * @return Version of the patcher itself.
+	 */
+	public static String getPatcherVersion() {
+		return PATCHER_VERSION;
+	}
+
+	/**
+	 * @return Patching configuration.
+	 */
+	public PatchOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @param majorVersion
+	 * 		Major version of some class.
+	 *
+	 * @return {@code true} when a class of the given version does not need any patching.
+	 */
+	public boolean isCompliant(int majorVersion) {
+		return majorVersion <= options.getClassVersion();
+	}
+
+	/**
+	 * @param majorVersion
+	 * 		Major version of some class.
+	 *
+	 * @return {@code true} when a class of the given version can be passed through without looking at its content.
+	 * When {@link PatchOptions#isOptimizeStartup() optimizing startup}, even compliant classes may need rewriting.
+	 */
+	private boolean canPassThrough(int majorVersion) {
+		return isCompliant(majorVersion) && !options.isOptimizeStartup();
+	}
+
+	/**
+	 * Patches a single class on the calling thread.
+	 *
+	 * @param bytecode
+	 * 		Class to patch.
+	 *
+	 * @return Patched class, or the same array when the class is already {@link #isCompliant(int) compliant}
+	 * and does not need rewriting.
+	 *
+	 * @throws IllegalStateException
+	 * 		When patching generates classes, which need {@link #patch(byte[], BiConsumer)} to be kept.
+	 */
+	public byte[] patch(byte[] bytecode) {
+		return patch(bytecode, (name, generated) -> {
+			throw new IllegalStateException("Patching generated class " + name + " which would be lost");
+		});
+	}
+
+	/**
+	 * Patches a single class on the calling thread.
+	 *
+	 * @param bytecode
+	 * 		Class to patch.
+	 * @param generatedClassHandler
+	 * 		Called with the internal name and bytecode of each class generated alongside the patched class,
+	 * 		such as for desugared lambdas. Generated classes are in the same package as the patched class.
+	 *
+	 * @return Patched class, or the same array when the class is already {@link #isCompliant(int) compliant}
+	 * and does not need rewriting.
+	 */
+	public byte[] patch(byte[] bytecode, BiConsumer<String, byte[]> generatedClassHandler) {
+		int majorVersion = ClassHeader.getMajorVersion(bytecode);
+		if (canPassThrough(majorVersion))
+			return bytecode;
+		ClassReader cr = new ClassReader(bytecode);
+		ClassFeatures features = ClassFeatures.scan(cr);
+		if (features.requiresRewrite(options)) {
+			Map<String, byte[]> generatedClasses = new LinkedHashMap<>();
+			byte[] output = rewrite(cr, features, null, generatedClasses);
+			generatedClasses.forEach(generatedClassHandler);
+			return output;
+		}
+		if (isCompliant(majorVersion))
+			return bytecode;
+		byte[] copy = bytecode.clone();
+		ClassHeader.putVersion(copy, ClassHeader.VERSION_OFFSET, options.getClassVersion());
+		return copy;
+	}
+
+	/**
+	 * @param cr
+	 * 		Reader of class to patch.
+	 * @param features
+	 * 		Features of the class.
+	 * @param report
+	 * 		Report to update with the number of lowered call sites, or {@code null} when not tracking.
+	 * @param generatedClasses
+	 * 		Map to add classes generated alongside the patched class to, by internal name.
+	 *
+	 * @return Patched class.
+	 */
+	private byte[] rewrite(ClassReader cr, ClassFeatures features, PatchReport report, Map<String, byte[]> generatedClasses) {
+		// A shared constant pool is copied in full, including entries no longer referenced after patching.
+		// So it can only be shared when the target version supports all of its entries.
+		if (options.isCopyUnmodifiedMethods() && features.getConstantPoolVersion() <= options.getClassVersion()) {
+			// Sharing the constant pool lets the writer copy any method the patcher does not wrap as-is.
+			// Only methods found to need rewriting are wrapped, so the index is only built when there is work for it.
+			MethodIndex index = needsMethodIndex(features) ? MethodIndex.scan(cr) : MethodIndex.empty();
+			ClassWriter cw = new ClassWriter(cr, 0);
+			VersionPatcher patcher = new VersionPatcher(cw, options, features, index);
+			cr.accept(patcher, 0);
+			if (report != null)
+				report.addLoweredCallSites(patcher.getLoweredCallSites());
+			generatedClasses.putAll(patcher.getGeneratedClasses());
+			return cw.toByteArray();
+		}
+		// Inlined string concatenation needs the max locals of each method, which only the index provides
+		MethodIndex index = needsMethodIndex(features) && options.getEffectiveStringConcatStrategy() == StringConcatStrategy.INLINE ?
+				MethodIndex.scan(cr) : null;
+		ClassWriter cw = new ClassWriter(0);
+		VersionPatcher patcher = new VersionPatcher(cw, options, features, index);
+		cr.accept(patcher, ClassReader.EXPAND_FRAMES);
+		if (report != null)
+			report.addLoweredCallSites(patcher.getLoweredCallSites());
+		generatedClasses.putAll(patcher.getGeneratedClasses());
+		return cw.toByteArray();
+	}
+
+	/**
+	 * @param features
+	 * 		Features of a class.
+	 *
+	 * @return {@code true} when some methods, but not necessarily all of them, may need rewriting.
+	 */
+	private boolean needsMethodIndex(ClassFeatures features) {
+		if (options.isOptimizeStartup())
+			return features.hasStringConcat() || features.hasLambdaMetafactory() || features.hasSwitchBootstraps();
+		int targetVersion = options.getTargetVersion();
+		return targetVersion < 9 && features.hasStringConcat() || targetVersion < 11 && features.hasConstantDynamic() ||
+				targetVersion < 21 && features.hasSwitchBootstraps();
+	}
+
+	/**
+	 * Patches all classes in a directory in place.
+	 *
+	 * @param root
+	 * 		Directory containing classes to patch.
+	 * @param manifest
+	 * 		Manifest of a previous run over the same directory, used to skip classes that have not changed since.
+	 * 		May be {@code null} to patch all classes. The manifest is updated, but not {@link PatchManifest#save() saved}.
+	 * @param failureHandler
+	 * 		Called when a class cannot be patched. May be called from multiple threads.
+	 *
+	 * @return Summary of the work done.
+	 *
+	 * @throws IOException
+	 * 		When the directory cannot be walked.
+	 */
+	public PatchReport patchDirectory(Path root, PatchManifest manifest,
+									  BiConsumer<ClassSource, Exception> failureHandler) throws IOException {
+		List<ClassSource> sources;
+		try (Stream<Path> stream = Files.walk(root)) {
+			sources = stream.filter(p -> p.toString().endsWith(".class"))
+					.map(p -> new PathClassSource(root, p))
+					.sorted(Comparator.comparing(PathClassSource::getName))
+					.collect(Collectors.toList());
+		}
+		return patchAll(sources, manifest, failureHandler);
+	}
+
+	/**
+	 * Patches all given classes, spreading the work over the configured {@link PatchOptions#getParallelism()}.
+	 * Blocks until all classes have been handled.
+	 *
+	 * @param sources
+	 * 		Classes to patch.
+	 * @param failureHandler
+	 * 		Called when a class cannot be patched. May be called from multiple threads.
+	 *
+	 * @return Summary of the work done.
+	 */
+	public PatchReport patchAll(Collection<? extends ClassSource> sources, BiConsumer<ClassSource, Exception> failureHandler) {
+		return patchAll(sources, null, failureHandler);
+	}
+
+	/**
+	 * Patches all given classes, spreading the work over the configured {@link PatchOptions#getParallelism()}.
+	 * Blocks until all classes have been handled.
+	 *
+	 * @param sources
+	 * 		Classes to patch.
+	 * @param manifest
+	 * 		Manifest of a previous run, keyed by {@link ClassSource#getName() source names}, used to skip classes
+	 * 		that have not changed since. May be {@code null} to patch all classes.
+	 * @param failureHandler
+	 * 		Called when a class cannot be patched. May be called from multiple threads.
+	 *
+	 * @return Summary of the work done.
+	 */
+	public PatchReport patchAll(Collection<? extends ClassSource> sources, PatchManifest manifest,
+								BiConsumer<ClassSource, Exception> failureHandler) {
+		PatchReport report = new PatchReport();
+		List<ClassSource> list = new ArrayList<>(sources);
+		PatchTask task = new PatchTask(list, 0, list.size(), manifest, report, failureHandler);
+		if (pool == null)
+			task.compute();
+		else
+			pool.invoke(task);
+		return report;
+	}
+
+	/**
+	 * Patches a single class on the engine's threads, or on the calling thread when not running in parallel.
+	 *
+	 * @param source
+	 * 		Class to patch.
+	 * @param report
+	 * 		Report to update.
+	 * @param failureHandler
+	 * 		Called when the class cannot be patched.
+	 *
+	 * @return Future completing once the class has been handled.
+	 */
+	CompletableFuture<Void> patchAsync(ClassSource source, PatchReport report,
+									   BiConsumer<ClassSource, Exception> failureHandler) {
+		if (pool == null) {
+			patchSource(source, null, report, failureHandler);
+			return CompletableFuture.completedFuture(null);
+		}
+		return CompletableFuture.runAsync(() -> patchSource(source, null, report, failureHandler), pool);
+	}
+
+	/**
+	 * @param source
+	 * 		Class to patch.
+	 * @param manifest
+	 * 		Manifest to check and update, or {@code null} when not tracking.
+	 * @param report
+	 * 		Report to update.
+	 * @param failureHandler
+	 * 		Called when the class cannot be patched.
+	 */
+	private void patchSource(ClassSource source, PatchManifest manifest, PatchReport report,
+							 BiConsumer<ClassSource, Exception> failureHandler) {
+		try {
+			if (manifest == null) {
+				// Check the header alone first, so compliant classes are never fully read or parsed
+				if (canPassThrough(source.readMajorVersion())) {
+					source.passThrough();
+					report.incrementSkipped();
+					return;
+				}
+				patchSource(source, source.read(), false, report);
+			} else {
+				// The full content is needed to check against the manifest
+				byte[] bytecode = source.read();
+				String inputHash = Hashes.sha256(bytecode);
+				if (manifest.isUpToDate(source.getName(), inputHash)) {
+					report.incrementUpToDate();
+					return;
+				}
+				byte[] output = patchSource(source, bytecode, true, report);
+				manifest.record(source.getName(), inputHash, output == bytecode ? inputHash : Hashes.sha256(output));
+			}
+		} catch (Exception ex) {
+			report.incrementFailed();
+			failureHandler.accept(source, ex);
+		}
+	}
+
+	/**
+	 * @param source
+	 * 		Class to patch.
+	 * @param bytecode
+	 * 		Content of the class.
+	 * @param needOutput
+	 * 		Whether the caller needs the patched output.
+	 * 		If not, the return value of version-only changes is not guaranteed to be accurate.
+	 * @param report
+	 * 		Report to update.
+	 *
+	 * @return Patched class, or the same array when passed through.
+	 *
+	 * @throws IOException
+	 * 		When the source cannot be written to.
+	 */
+	private byte[] patchSource(ClassSource source, byte[] bytecode, boolean needOutput, PatchReport report) throws IOException {
+		int majorVersion = ClassHeader.getMajorVersion(bytecode);
+		if (canPassThrough(majorVersion)) {
+			source.passThrough();
+			report.incrementSkipped();
+			return bytecode;
+		}
+		ClassReader cr = new ClassReader(bytecode);
+		ClassFeatures features = ClassFeatures.scan(cr);
+		if (features.requiresRewrite(options)) {
+			Map<String, byte[]> generatedClasses = new LinkedHashMap<>();
+			byte[] output = rewrite(cr, features, report, generatedClasses);
+			source.write(output);
+			for (Map.Entry<String, byte[]> generated : generatedClasses.entrySet())
+				source.writeGenerated(generated.getKey(), generated.getValue());
+			report.incrementPatched();
+			return output;
+		}
+		if (isCompliant(majorVersion)) {
+			source.passThrough();
+			report.incrementSkipped();
+			return bytecode;
+		}
+		// Nothing but the version needs to change, so skip the full visit and re-serialization
+		source.writeVersion(bytecode, options.getClassVersion());
+		report.incrementVersionOnly();
+		if (!needOutput)
+			return null;
+		byte[] output = bytecode.clone();
+		ClassHeader.putVersion(output, ClassHeader.VERSION_OFFSET, options.getClassVersion());
+		return output;
+	}
+
+	@Override
+	public void close() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private static String loadPatcherVersion() {
+		try (InputStream in = PatchEngine.class.getResourceAsStream("patcher.properties")) {
+			Properties properties = new Properties();
+			if (in != null)
+				properties.load(in);
+			return properties.getProperty("version", "unknown");
+		} catch (IOException ex) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Splits a range of sources until they are small enough to patch sequentially.
+	 */
+	private class PatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<ClassSource> sources;
+		private final int start;
+		private final int end;
+		private final PatchManifest manifest;
+		private final PatchReport report;
+		private final BiConsumer<ClassSource, Exception> failureHandler;
+
+		private PatchTask(List<ClassSource> sources, int start, int end, PatchManifest manifest, PatchReport report,
+						  BiConsumer<ClassSource, Exception> failureHandler) {
+			this.sources = sources;
+			this.start = start;
+			this.end = end;
+			this.manifest = manifest;
+			this.report = report;
+			this.failureHandler = failureHandler;
+		}
+
+		@Override
+		protected void compute() {
+			if (pool == null || end - start <= SPLIT_THRESHOLD) {
+				for (int i = start; i < end; i++)
+					patchSource(sources.get(i), manifest, report, failureHandler);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new PatchTask(sources, start, mid, manifest, report, failureHandler),
+						new PatchTask(sources, mid, end, manifest, report, failureHandler));
+			}
+		}
+	}
+}
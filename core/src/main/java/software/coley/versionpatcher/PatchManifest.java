@@ -0,0 +1,142 @@
+package software.coley.versionpatcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the classes patched in place in a directory, allowing later runs to skip classes
+ * that have not changed since they were last patched.
+ * <br>
+ * Each entry records, per class file, the hash of its content before and after patching,
+ * along with the target version and {@link PatchOptions#getOutputKey() patcher version} that produced the output.
+ *
+ * @author Matt Coley
+ */
+public class PatchManifest {
+	private static final String HEADER = "# class-version-patcher manifest v1";
+	private final Map<String, Entry> previous;
+	private final Map<String, Entry> current = new ConcurrentHashMap<>();
+	private final Path file;
+	private final int targetVersion;
+	private final String patcherVersion;
+
+	private PatchManifest(Path file, int targetVersion, String patcherVersion, Map<String, Entry> previous) {
+		this.file = file;
+		this.targetVersion = targetVersion;
+		this.patcherVersion = patcherVersion;
+		this.previous = previous;
+	}
+
+	/**
+	 * Loads the manifest from the given file. A missing or unreadable manifest yields an empty manifest,
+	 * which simply causes all classes to be patched.
+	 *
+	 * @param file
+	 * 		Manifest file location.
+	 * @param options
+	 * 		Options of the current run.
+	 *
+	 * @return Loaded manifest.
+	 */
+	public static PatchManifest load(Path file, PatchOptions options) {
+		Map<String, Entry> entries = new ConcurrentHashMap<>();
+		if (Files.isRegularFile(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty() || line.startsWith("#"))
+						continue;
+					String[] parts = line.split("\t");
+					if (parts.length != 5) {
+						// Unknown format, start over
+						entries.clear();
+						break;
+					}
+					entries.put(parts[0], new Entry(parts[1], parts[2], Integer.parseInt(parts[3]), parts[4]));
+				}
+			} catch (IOException | NumberFormatException ex) {
+				entries.clear();
+			}
+		}
+		return new PatchManifest(file, options.getTargetVersion(), options.getOutputKey(), entries);
+	}
+
+	/**
+	 * @param name
+	 * 		Path of the class, relative to the patched directory.
+	 * @param contentHash
+	 * 		Hash of the current content of the class.
+	 *
+	 * @return {@code true} when the class is the output of a previous run with the same target and patcher version.
+	 * The entry is carried over to the next {@link #save() saved} manifest.
+	 */
+	public boolean isUpToDate(String name, String contentHash) {
+		Entry entry = previous.get(name);
+		if (entry == null || entry.targetVersion != targetVersion ||
+				!entry.patcherVersion.equals(patcherVersion) || !entry.outputHash.equals(contentHash))
+			return false;
+		current.put(name, entry);
+		return true;
+	}
+
+	/**
+	 * @param name
+	 * 		Path of the class, relative to the patched directory.
+	 * @param inputHash
+	 * 		Hash of the class before patching.
+	 * @param outputHash
+	 * 		Hash of the class after patching.
+	 */
+	public void record(String name, String inputHash, String outputHash) {
+		current.put(name, new Entry(inputHash, outputHash, targetVersion, patcherVersion));
+	}
+
+	/**
+	 * Writes the entries of classes handled in this run. Entries of classes no longer present are dropped.
+	 *
+	 * @throws IOException
+	 * 		When the manifest cannot be written.
+	 */
+	public void save() throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Map.Entry<String, Entry> e : new TreeMap<>(current).entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(e.getKey() + '\t' + entry.inputHash + '\t' + entry.outputHash + '\t' +
+							entry.targetVersion + '\t' + entry.patcherVersion);
+					writer.newLine();
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static class Entry {
+		private final String inputHash;
+		private final String outputHash;
+		private final int targetVersion;
+		private final String patcherVersion;
+
+		private Entry(String inputHash, String outputHash, int targetVersion, String patcherVersion) {
+			this.inputHash = inputHash;
+			this.outputHash = outputHash;
+			this.targetVersion = targetVersion;
+			this.patcherVersion = patcherVersion;
+		}
+	}
+}
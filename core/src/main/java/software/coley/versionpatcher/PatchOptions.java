@@ -0,0 +1,193 @@
+package software.coley.versionpatcher;
+
+/**
+ * Configuration for a {@link PatchEngine}.
+ *
+ * @author Matt Coley
+ */
+public class PatchOptions {
+	/**
+	 * Default timestamp of entries in reproducible output, {@code 1980-02-01T00:00:00Z}.
+	 * This is a month past the earliest time a zip file can represent, so it remains valid when read in any time zone.
+	 */
+	public static final long DEFAULT_OUTPUT_TIMESTAMP = 318211200000L;
+	private int targetVersion = 8;
+	private int parallelism;
+	private boolean copyUnmodifiedMethods = true;
+	private StringConcatStrategy stringConcatStrategy = StringConcatStrategy.COMPAT;
+	private boolean memoizeRecordHashCodes;
+	private boolean optimizeStartup;
+	private boolean reproducible;
+	private long outputTimestamp = DEFAULT_OUTPUT_TIMESTAMP;
+
+	/**
+	 * @return Java version to target, such as {@code 8} or {@code 11}.
+	 */
+	public int getTargetVersion() {
+		return targetVersion;
+	}
+
+	/**
+	 * @param targetVersion
+	 * 		Java version to target, such as {@code 8} or {@code 11}.
+	 */
+	public void setTargetVersion(int targetVersion) {
+		this.targetVersion = targetVersion;
+	}
+
+	/**
+	 * @return Class file major version of the {@link #getTargetVersion() target version}.
+	 */
+	public int getClassVersion() {
+		return 44 + targetVersion;
+	}
+
+	/**
+	 * @return Number of threads to patch classes on.
+	 * Values less than one use the number of available processors.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 * 		Number of threads to patch classes on.
+	 * 		Values less than one use the number of available processors.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return Effective number of threads to patch classes on.
+	 */
+	public int getEffectiveParallelism() {
+		if (parallelism < 1)
+			return Runtime.getRuntime().availableProcessors();
+		return parallelism;
+	}
+
+	/**
+	 * @return {@code true} to copy methods that do not need rewriting as-is, instead of expanding
+	 * and re-serializing every method of every patched class.
+	 */
+	public boolean isCopyUnmodifiedMethods() {
+		return copyUnmodifiedMethods;
+	}
+
+	/**
+	 * @param copyUnmodifiedMethods
+	 * 		{@code true} to copy methods that do not need rewriting as-is, instead of expanding
+	 * 		and re-serializing every method of every patched class.
+	 */
+	public void setCopyUnmodifiedMethods(boolean copyUnmodifiedMethods) {
+		this.copyUnmodifiedMethods = copyUnmodifiedMethods;
+	}
+
+	/**
+	 * @return Strategy to replace Java 9+ string concatenation with, when targeting Java 8 or lower.
+	 */
+	public StringConcatStrategy getStringConcatStrategy() {
+		return stringConcatStrategy;
+	}
+
+	/**
+	 * @param stringConcatStrategy
+	 * 		Strategy to replace Java 9+ string concatenation with, when targeting Java 8 or lower.
+	 */
+	public void setStringConcatStrategy(StringConcatStrategy stringConcatStrategy) {
+		this.stringConcatStrategy = stringConcatStrategy;
+	}
+
+	/**
+	 * @return {@code true} to cache the hash code of downgraded records in a synthetic transient field,
+	 * when all of their components are of immutable types.
+	 */
+	public boolean isMemoizeRecordHashCodes() {
+		return memoizeRecordHashCodes;
+	}
+
+	/**
+	 * @param memoizeRecordHashCodes
+	 * 		{@code true} to cache the hash code of downgraded records in a synthetic transient field,
+	 * 		when all of their components are of immutable types.
+	 */
+	public void setMemoizeRecordHashCodes(boolean memoizeRecordHashCodes) {
+		this.memoizeRecordHashCodes = memoizeRecordHashCodes;
+	}
+
+	/**
+	 * @return Strategy actually used to replace string concatenation. When lowering it on Java 9+ targets only to
+	 * {@link #isOptimizeStartup() optimize startup}, {@link StringConcatStrategy#COMPAT} is replaced by
+	 * {@link StringConcatStrategy#INLINE} so that {@link StringCompat} does not have to be shipped.
+	 */
+	public StringConcatStrategy getEffectiveStringConcatStrategy() {
+		if (targetVersion >= 9 && stringConcatStrategy == StringConcatStrategy.COMPAT)
+			return StringConcatStrategy.INLINE;
+		return stringConcatStrategy;
+	}
+
+	/**
+	 * @return {@code true} to replace invoke-dynamic call sites with plain code even when the target version supports them,
+	 * so that they do not need to be linked at runtime. Compliant classes are then rewritten if they contain such call sites.
+	 * Lambdas are replaced with {@link LambdaClasses generated classes}, which are written alongside the patched class.
+	 */
+	public boolean isOptimizeStartup() {
+		return optimizeStartup;
+	}
+
+	/**
+	 * @param optimizeStartup
+	 * 		{@code true} to replace invoke-dynamic call sites with plain code even when the target version supports them,
+	 * 		so that they do not need to be linked at runtime. Compliant classes are then rewritten if they contain such call sites.
+	 * 		Lambdas are replaced with {@link LambdaClasses generated classes}, which are written alongside the patched class.
+	 */
+	public void setOptimizeStartup(boolean optimizeStartup) {
+		this.optimizeStartup = optimizeStartup;
+	}
+
+	/**
+	 * @return {@code true} to produce output that only depends on the input, so that patching identical
+	 * inputs always produces identical bytes. Jar entries are sorted and given a {@link #getOutputTimestamp() fixed time}.
+	 */
+	public boolean isReproducible() {
+		return reproducible;
+	}
+
+	/**
+	 * @param reproducible
+	 * 		{@code true} to produce output that only depends on the input, so that patching identical
+	 * 		inputs always produces identical bytes. Jar entries are sorted and given a {@link #getOutputTimestamp() fixed time}.
+	 */
+	public void setReproducible(boolean reproducible) {
+		this.reproducible = reproducible;
+	}
+
+	/**
+	 * @return Time in milliseconds since the epoch to give all jar entries in {@link #isReproducible() reproducible} output.
+	 */
+	public long getOutputTimestamp() {
+		return outputTimestamp;
+	}
+
+	/**
+	 * @param outputTimestamp
+	 * 		Time in milliseconds since the epoch to give all jar entries in {@link #isReproducible() reproducible} output.
+	 */
+	public void setOutputTimestamp(long outputTimestamp) {
+		this.outputTimestamp = outputTimestamp;
+	}
+
+	/**
+	 * @return Identifier of the patcher version and all options that affect its output, excluding the target version.
+	 * Output produced with the same key and target version from the same input can be reused.
+	 */
+	public String getOutputKey() {
+		String key = PatchEngine.getPatcherVersion() + ";copy=" + copyUnmodifiedMethods +
+				";concat=" + stringConcatStrategy + ";memoizeHash=" + memoizeRecordHashCodes + ";startup=" + optimizeStartup;
+		if (reproducible)
+			key += ";timestamp=" + outputTimestamp;
+		return key;
+	}
+}
@@ -0,0 +1,90 @@
+package software.coley.versionpatcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Summary of a batch of classes handled by {@link PatchEngine#patchAll}.
+ *
+ * @author Matt Coley
+ */
+public class PatchReport {
+	private final AtomicInteger patched = new AtomicInteger();
+	private final AtomicInteger versionOnly = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger upToDate = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger loweredCallSites = new AtomicInteger();
+
+	/**
+	 * @return Number of classes patched and written.
+	 */
+	public int getPatched() {
+		return patched.get();
+	}
+
+	/**
+	 * @return Number of classes that only had their version changed, without any structural rewriting.
+	 */
+	public int getVersionOnly() {
+		return versionOnly.get();
+	}
+
+	/**
+	 * @return Number of classes passed through as-is, since they were already compliant with the target version.
+	 */
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return Number of classes skipped since the {@link PatchManifest} shows them to be unchanged since last patched.
+	 */
+	public int getUpToDate() {
+		return upToDate.get();
+	}
+
+	/**
+	 * @return Number of classes that could not be patched.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return Number of invoke-dynamic call sites and dynamic constant loads in patched classes replaced with plain code,
+	 * which no longer need to be linked at runtime.
+	 */
+	public int getLoweredCallSites() {
+		return loweredCallSites.get();
+	}
+
+	void incrementPatched() {
+		patched.incrementAndGet();
+	}
+
+	void incrementVersionOnly() {
+		versionOnly.incrementAndGet();
+	}
+
+	void incrementSkipped() {
+		skipped.incrementAndGet();
+	}
+
+	void incrementUpToDate() {
+		upToDate.incrementAndGet();
+	}
+
+	void incrementFailed() {
+		failed.incrementAndGet();
+	}
+
+	void addLoweredCallSites(int count) {
+		loweredCallSites.addAndGet(count);
+	}
+
+	@Override
+	public String toString() {
+		return "patched=" + getPatched() + ", versionOnly=" + getVersionOnly() + ", skipped=" + getSkipped() + ", upToDate=" + getUpToDate() + ", failed=" + getFailed() +
+				", loweredCallSites=" + getLoweredCallSites();
+	}
+}
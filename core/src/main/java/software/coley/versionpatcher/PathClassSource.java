@@ -0,0 +1,95 @@
+package software.coley.versionpatcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class source of a file on disk that is patched in place.
+ *
+ * @author Matt Coley
+ */
+public class PathClassSource implements ClassSource {
+	private final Path path;
+	private final String name;
+
+	/**
+	 * @param path
+	 * 		Path to the class file.
+	 */
+	public PathClassSource(Path path) {
+		this.path = path;
+		name = path.getFileName().toString();
+	}
+
+	/**
+	 * @param root
+	 * 		Directory the class file resides in, used to name the source by its relative path.
+	 * @param path
+	 * 		Path to the class file.
+	 */
+	public PathClassSource(Path root, Path path) {
+		this.path = path;
+		name = root.relativize(path).toString().replace('\\', '/');
+	}
+
+	/**
+	 * @return Path to the class file.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public byte[] read() throws IOException {
+		return Files.readAllBytes(path);
+	}
+
+	@Override
+	public int readMajorVersion() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ClassHeader.LENGTH);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+				// Keep reading until the header is filled or the file ends
+			}
+		}
+		header.flip();
+		return ClassHeader.getMajorVersion(header);
+	}
+
+	@Override
+	public void write(byte[] bytecode) throws IOException {
+		Files.write(path, bytecode);
+	}
+
+	@Override
+	public void writeGenerated(String internalName, byte[] bytecode) throws IOException {
+		String simpleName = internalName.substring(internalName.lastIndexOf('/') + 1);
+		Files.write(path.resolveSibling(simpleName + ".class"), bytecode);
+	}
+
+	@Override
+	public void writeVersion(byte[] bytecode, int majorVersion) throws IOException {
+		// The rest of the file stays the same, so only overwrite the version items
+		byte[] version = new byte[4];
+		ClassHeader.putVersion(version, 0, majorVersion);
+		ByteBuffer buffer = ByteBuffer.wrap(version);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer, ClassHeader.VERSION_OFFSET + buffer.position());
+		}
+	}
+
+	@Override
+	public void passThrough() {
+		// Input and output are the same file, so there is nothing to copy
+	}
+}
@@ -3,7 +3,11 @@ package software.coley.versionpatcher;
 import org.objectweb.asm.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -17,10 +21,21 @@ import java.util.stream.Collectors;
  * @author Matt Coley
  */
 public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
+	/**
+	 * Name of the synthetic field caching the hash code, when {@link #canMemoizeHashCode(List) possible}.
+	 */
+	public static final String HASH_FIELD = "hash$";
+	private static final Set<String> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+			"Ljava/lang/String;", "Ljava/lang/Boolean;", "Ljava/lang/Character;", "Ljava/lang/Byte;",
+			"Ljava/lang/Short;", "Ljava/lang/Integer;", "Ljava/lang/Long;", "Ljava/lang/Float;", "Ljava/lang/Double;"));
 	private final List<FieldInfo> fields;
 	private final String declaringType;
+	private final String simpleTypeName;
 	private final String methodName;
 	private final String methodDesc;
+	private final int targetVersion;
+	private final String hashField;
+	private int replaced;
 
 	/**
 	 * @param mv
@@ -35,11 +50,88 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 	 * 		Descriptor of the method being rewritten.
 	 */
 	public RecordMethodImplRewriter(MethodVisitor mv, String declaringType, List<FieldInfo> fields, String methodName, String methodDesc) {
+		this(mv, declaringType, fields, methodName, methodDesc, 8);
+	}
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param declaringType
+	 * 		Name of record declaration.
+	 * @param fields
+	 * 		Declared fields in the class.
+	 * @param methodName
+	 * 		Name of the method being rewritten.
+	 * @param methodDesc
+	 * 		Descriptor of the method being rewritten.
+	 * @param targetVersion
+	 * 		Java version to target. Library methods newer than this version are not used.
+	 */
+	public RecordMethodImplRewriter(MethodVisitor mv, String declaringType, List<FieldInfo> fields, String methodName,
+									String methodDesc, int targetVersion) {
+		this(mv, declaringType, fields, methodName, methodDesc, targetVersion, null);
+	}
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param declaringType
+	 * 		Name of record declaration.
+	 * @param fields
+	 * 		Declared fields in the class.
+	 * @param methodName
+	 * 		Name of the method being rewritten.
+	 * @param methodDesc
+	 * 		Descriptor of the method being rewritten.
+	 * @param targetVersion
+	 * 		Java version to target. Library methods newer than this version are not used.
+	 * @param hashField
+	 * 		Name of an {@code int} field to cache the hash code in, or {@code null} to compute it on every call.
+	 * 		The caller is responsible for adding the field.
+	 */
+	public RecordMethodImplRewriter(MethodVisitor mv, String declaringType, List<FieldInfo> fields, String methodName,
+									String methodDesc, int targetVersion, String hashField) {
+		this(mv, declaringType, declaringType.substring(declaringType.lastIndexOf('/') + 1), fields, methodName,
+				methodDesc, targetVersion, hashField);
+	}
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param declaringType
+	 * 		Name of record declaration.
+	 * @param simpleTypeName
+	 * 		Simple name of the record, as shown by {@code toString()}.
+	 * 		For nested records this is the inner name from the {@code InnerClasses} attribute.
+	 * @param fields
+	 * 		Declared fields in the class.
+	 * @param methodName
+	 * 		Name of the method being rewritten.
+	 * @param methodDesc
+	 * 		Descriptor of the method being rewritten.
+	 * @param targetVersion
+	 * 		Java version to target. Library methods newer than this version are not used.
+	 * @param hashField
+	 * 		Name of an {@code int} field to cache the hash code in, or {@code null} to compute it on every call.
+	 * 		The caller is responsible for adding the field.
+	 */
+	public RecordMethodImplRewriter(MethodVisitor mv, String declaringType, String simpleTypeName, List<FieldInfo> fields,
+									String methodName, String methodDesc, int targetVersion, String hashField) {
 		super(Opcodes.ASM9, mv);
 		this.declaringType = declaringType;
+		this.simpleTypeName = simpleTypeName;
 		this.fields = fields;
 		this.methodName = methodName;
 		this.methodDesc = methodDesc;
+		this.targetVersion = targetVersion;
+		this.hashField = hashField;
+	}
+
+	/**
+	 * @return Number of replaced {@code ObjectMethods} bootstrap call sites.
+	 */
+	public int getReplaced() {
+		return replaced;
 	}
 
 	/**
@@ -57,6 +149,25 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 				(isToString(name, descriptor) || isHashCode(name, descriptor) || isEquals(name, descriptor));
 	}
 
+	/**
+	 * @param fields
+	 * 		Declared fields in a record.
+	 *
+	 * @return {@code true} when all instance fields are of types known to be immutable, so that the hash code
+	 * can never change after construction. Only primitives, strings and primitive wrappers are known to be immutable,
+	 * since field descriptors alone do not tell whether other types, including records, are.
+	 */
+	public static boolean canMemoizeHashCode(List<FieldInfo> fields) {
+		for (FieldInfo field : fields) {
+			if ((field.getAccess() & (ACC_STATIC | ACC_SYNTHETIC)) != 0)
+				continue;
+			String descriptor = field.getDescriptor();
+			if (descriptor.length() > 1 && !IMMUTABLE_TYPES.contains(descriptor))
+				return false;
+		}
+		return true;
+	}
+
 	private static boolean isEquals(String name, String descriptor) {
 		return name.equals("equals") && descriptor.equals("(Ljava/lang/Object;)Z");
 	}
@@ -117,6 +228,8 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 	public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
 		// Don't visit anything.
 		// Rewriting is handled in visitEnd()
+		if ("java/lang/runtime/ObjectMethods".equals(bootstrapMethodHandle.getOwner()))
+			replaced++;
 	}
 
 	@Override
@@ -218,11 +331,11 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 		variablePopulators.add(() -> mv.visitLocalVariable("this", "L" + declaringType + ";", null, start, end, 0));
 		if (isEquals(methodName, methodDesc)) {
 			Label passEquals = new Label();
-			Label passNull = new Label();
-			Label passClass = new Label();
+			Label passInstance = new Label();
 			Label castStart = new Label();
-			Label successReturn = new Label();
 			Label fallbackReturn = new Label();
+			Object[] locals = {declaringType, "java/lang/Object"};
+			Object[] castLocals = {declaringType, "java/lang/Object", declaringType};
 			variablePopulators.add(() -> mv.visitLocalVariable("o", "Ljava/lang/Object;", null, start, end, 1));
 			variablePopulators.add(() -> mv.visitLocalVariable("other", "L" + declaringType + ";", null, castStart, end, 2));
 			// if (this == o) return true;
@@ -232,103 +345,138 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 			mv.visitInsn(ICONST_1);
 			mv.visitInsn(IRETURN);
 			mv.visitLabel(passEquals);
-			// if (o == null) return false;
-			mv.visitVarInsn(ALOAD, 1);
-			mv.visitJumpInsn(IFNONNULL, passNull);
-			mv.visitInsn(ICONST_0);
-			mv.visitInsn(IRETURN);
-			mv.visitLabel(passNull);
-			// if (getClass() != o.getClass()) return false;
-			mv.visitVarInsn(ALOAD, 0);
-			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
+			visitFrame(locals);
+			// if (!(o instanceof Type)) return false;
+			//  - records are final, so this is the same as comparing classes, and also handles null
 			mv.visitVarInsn(ALOAD, 1);
-			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
-			mv.visitJumpInsn(IF_ACMPEQ, passClass);
+			mv.visitTypeInsn(INSTANCEOF, declaringType);
+			mv.visitJumpInsn(IFNE, passInstance);
 			mv.visitInsn(ICONST_0);
 			mv.visitInsn(IRETURN);
-			mv.visitLabel(passClass);
+			mv.visitLabel(passInstance);
+			visitFrame(locals);
 			// Type other = (Type) o;
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitTypeInsn(CHECKCAST, declaringType);
 			mv.visitVarInsn(ASTORE, 2);
 			mv.visitLabel(castStart);
-			// Compare all fields for equality
-			for (FieldInfo field : instanceFields) {
-				// push our field
+			// Compare all fields for equality, cheapest first.
+			// Comparisons have no side effects other than calling equals, so the order does not change the result.
+			List<FieldInfo> orderedFields = new ArrayList<>(instanceFields);
+			orderedFields.sort(Comparator.comparingInt(f -> getEqualsCost(f.getDescriptor())));
+			for (FieldInfo field : orderedFields) {
+				Type type = Type.getType(field.getDescriptor());
 				pushFieldValueToStack(field);
-				mapStackTopValueToObject(field.getDescriptor());
-				// push other field
-				mv.visitVarInsn(ALOAD, 2);
-				mv.visitFieldInsn(GETFIELD, declaringType, field.getName(), field.getDescriptor());
-				mapStackTopValueToObject(field.getDescriptor());
-				// Compare via Objects.equals(a, b)
-				//  pushes 0 when compare fails
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Objects", "equals", "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
-				mv.visitJumpInsn(IFEQ, fallbackReturn);
+				pushOtherFieldValueToStack(field);
+				switch (type.getSort()) {
+					case Type.BOOLEAN:
+					case Type.CHAR:
+					case Type.BYTE:
+					case Type.SHORT:
+					case Type.INT:
+						mv.visitJumpInsn(IF_ICMPNE, fallbackReturn);
+						break;
+					case Type.LONG:
+						mv.visitInsn(LCMP);
+						mv.visitJumpInsn(IFNE, fallbackReturn);
+						break;
+					case Type.FLOAT:
+						// Float.compare treats NaN as equal to itself, and 0.0 as not equal to -0.0
+						mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "compare", "(FF)I", false);
+						mv.visitJumpInsn(IFNE, fallbackReturn);
+						break;
+					case Type.DOUBLE:
+						mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+						mv.visitJumpInsn(IFNE, fallbackReturn);
+						break;
+					case Type.ARRAY:
+						// Arrays do not override equals, so only identity matters
+						mv.visitJumpInsn(IF_ACMPNE, fallbackReturn);
+						break;
+					case Type.OBJECT:
+					default:
+						// Same as Objects.equals(a, b), without the call:
+						//  if (a != b && (a == null || !a.equals(b))) return false;
+						Label next = new Label();
+						mv.visitJumpInsn(IF_ACMPEQ, next);
+						pushFieldValueToStack(field);
+						mv.visitJumpInsn(IFNULL, fallbackReturn);
+						pushFieldValueToStack(field);
+						pushOtherFieldValueToStack(field);
+						mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "equals", "(Ljava/lang/Object;)Z", false);
+						mv.visitJumpInsn(IFEQ, fallbackReturn);
+						mv.visitLabel(next);
+						visitFrame(castLocals);
+						break;
+				}
 			}
 			// All comparisons have passed
-			mv.visitLabel(successReturn);
 			mv.visitInsn(ICONST_1);
 			mv.visitInsn(IRETURN);
 			// Fallback, return false
 			mv.visitLabel(fallbackReturn);
+			visitFrame(castLocals);
 			mv.visitInsn(ICONST_0);
 			mv.visitInsn(IRETURN);
 			maxLocals = 3;
-			maxStack = 2;
+			maxStack = 4;
 		} else if (isHashCode(methodName, methodDesc)) {
-			// Create Object[number-of-instance-fields]
-			mv.visitIntInsn(BIPUSH, instanceFields.size());
-			mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
-			// array[n] = fields[n]
-			for (int i = 0; i < instanceFields.size(); i++) {
-				FieldInfo field = instanceFields.get(i);
-				mv.visitInsn(DUP);
-				mv.visitIntInsn(BIPUSH, i);
+			// Same as 'java.lang.runtime.ObjectMethods':
+			//  int h = 0;
+			//  h = 31 * h + hash(field) ...
+			//  return h;
+			// When memoized, the same racy single-check as String.hashCode():
+			//  int h = this.hash;
+			//  if (h == 0) { h = ...; this.hash = h; }
+			//  return h;
+			Label cached = new Label();
+			if (hashField != null) {
+				variablePopulators.add(() -> mv.visitLocalVariable("h", "I", null, start, end, 1));
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitFieldInsn(GETFIELD, declaringType, hashField, "I");
+				mv.visitVarInsn(ISTORE, 1);
+				mv.visitVarInsn(ILOAD, 1);
+				mv.visitJumpInsn(IFNE, cached);
+			}
+			mv.visitInsn(ICONST_0);
+			for (FieldInfo field : instanceFields) {
+				mv.visitIntInsn(BIPUSH, 31);
+				mv.visitInsn(IMUL);
 				pushFieldValueToStack(field);
-				mapStackTopValueToObject(field.getDescriptor());
-				mv.visitInsn(AASTORE);
+				mapStackTopValueToHash(field.getDescriptor());
+				mv.visitInsn(IADD);
+			}
+			if (hashField != null) {
+				mv.visitVarInsn(ISTORE, 1);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitVarInsn(ILOAD, 1);
+				mv.visitFieldInsn(PUTFIELD, declaringType, hashField, "I");
+				mv.visitLabel(cached);
+				visitFrame(new Object[]{declaringType, INTEGER});
+				mv.visitVarInsn(ILOAD, 1);
 			}
-			// return Objects.hash(array)
-			mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "hash", "([Ljava/lang/Object;)I", false);
 			mv.visitInsn(IRETURN);
-			maxLocals = 1;
-			maxStack = 5;
+			maxLocals = hashField != null ? 2 : 1;
+			// Hash on the stack, plus a long being folded into an int
+			maxStack = 6;
 		} else if (isToString(methodName, methodDesc)) {
-			String simpleTypeName = declaringType.substring(declaringType.lastIndexOf('/') + 1);
 			// Create pattern: Type[key=value, key=value]
-			//  - using StringBuilder
-			mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
-			mv.visitInsn(DUP);
-			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
-			if (instanceFields.isEmpty()) {
-				mv.visitLdcInsn(simpleTypeName + "[]");
-				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-			} else {
-				for (int i = 0; i < instanceFields.size(); i++) {
-					FieldInfo field = instanceFields.get(i);
-					boolean isFirst = i == 0;
-					if (isFirst) {
-						mv.visitLdcInsn(simpleTypeName + "[" + field.getName() + "=");
-						mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-						pushFieldValueToStack(field);
-						mapStackTopValueToObject(field.getDescriptor());
-						mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;", false);
-					} else {
-						mv.visitLdcInsn(", " + field.getName() + "=");
-						mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-						pushFieldValueToStack(field);
-						mapStackTopValueToObject(field.getDescriptor());
-						mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;", false);
-					}
-				}
-				mv.visitLdcInsn("]");
-				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+			//  - using a presized StringBuilder, appending values without boxing
+			Type[] types = new Type[instanceFields.size()];
+			List<Object> segments = new ArrayList<>();
+			segments.add(simpleTypeName + "[");
+			for (int i = 0; i < instanceFields.size(); i++) {
+				FieldInfo field = instanceFields.get(i);
+				types[i] = Type.getType(field.getDescriptor());
+				segments.add((i == 0 ? "" : ", ") + field.getName() + "=");
+				segments.add(i);
 			}
+			segments.add("]");
 			// return sb.toString();
-			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+			StringConcatRecipe.of(types, segments).emit(mv, i -> pushFieldValueToStack(instanceFields.get(i)));
 			mv.visitInsn(ARETURN);
 			maxLocals = 1;
+			// Builder and a long/double field value
 			maxStack = 3;
 		} else {
 			throw new IllegalStateException("Unsupported method: " + declaringType + "." + methodName + methodName);
@@ -346,48 +494,130 @@ public class RecordMethodImplRewriter extends MethodVisitor implements Opcodes {
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * @param descriptor
+	 * 		Field descriptor.
+	 *
+	 * @return Relative cost of comparing two values of the type in {@code equals}.
+	 */
+	private static int getEqualsCost(String descriptor) {
+		switch (Type.getType(descriptor).getSort()) {
+			case Type.BOOLEAN:
+			case Type.CHAR:
+			case Type.BYTE:
+			case Type.SHORT:
+			case Type.INT:
+				return 0;
+			case Type.LONG:
+				return 1;
+			case Type.FLOAT:
+			case Type.DOUBLE:
+				return 2;
+			case Type.ARRAY:
+				return 3;
+			default:
+				// Strings are cheaper to compare than most objects, and are not recursive
+				return descriptor.equals("Ljava/lang/String;") ? 4 : 5;
+		}
+	}
+
+	/**
+	 * Visits an uncompressed frame, when the target version uses stack map frames.
+	 *
+	 * @param locals
+	 * 		Types of the local variables.
+	 * @param stack
+	 * 		Types of the stack values.
+	 */
+	private void visitFrame(Object[] locals, Object... stack) {
+		if (targetVersion >= 6)
+			mv.visitFrame(F_NEW, locals.length, locals, stack.length, stack);
+	}
+
+	private void pushOtherFieldValueToStack(FieldInfo field) {
+		// Pushes: other.<field-ref>
+		mv.visitVarInsn(ALOAD, 2);
+		mv.visitFieldInsn(GETFIELD, declaringType, field.getName(), field.getDescriptor());
+	}
+
 	private void pushFieldValueToStack(FieldInfo field) {
 		// Pushes: this.<field-ref>
 		mv.visitVarInsn(ALOAD, 0);
 		mv.visitFieldInsn(GETFIELD, declaringType, field.getName(), field.getDescriptor());
 	}
 
-	private void mapStackTopValueToObject(String stackTopDescriptor) {
+	private void mapStackTopValueToHash(String stackTopDescriptor) {
 		Type type = Type.getType(stackTopDescriptor);
 		switch (type.getSort()) {
-			case Type.BOOLEAN:
-				// Boolean.valueOf(true/false)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
-				break;
 			case Type.CHAR:
-				// Character.valueOf(char)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
-				break;
 			case Type.BYTE:
-				// Byte.valueOf(byte)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Byte", "valueOf", "(B)Ljava/lang/Byte;", false);
-				break;
 			case Type.SHORT:
-				// Short.valueOf(short)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Short", "valueOf", "(S)Ljava/lang/Short;", false);
-				break;
 			case Type.INT:
-				// Integer.valueOf(int)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+				// The hash of these is the value itself
+				break;
+			case Type.BOOLEAN:
+				if (targetVersion >= 8) {
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "hashCode", "(Z)I", false);
+				} else {
+					// 1237 - 6 * value, which is 1231 for true and 1237 for false
+					mv.visitIntInsn(BIPUSH, 6);
+					mv.visitInsn(IMUL);
+					mv.visitIntInsn(SIPUSH, 1237);
+					mv.visitInsn(SWAP);
+					mv.visitInsn(ISUB);
+				}
 				break;
 			case Type.FLOAT:
-				// Float.valueOf(float)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "valueOf", "(F)Ljava/lang/Float;", false);
+				if (targetVersion >= 8)
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "hashCode", "(F)I", false);
+				else
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "floatToIntBits", "(F)I", false);
 				break;
 			case Type.DOUBLE:
-				// Double.valueOf(double)
-				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+				if (targetVersion >= 8) {
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "hashCode", "(D)I", false);
+				} else {
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+					foldLongHash();
+				}
+				break;
+			case Type.LONG:
+				if (targetVersion >= 8)
+					mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "hashCode", "(J)I", false);
+				else
+					foldLongHash();
 				break;
 			case Type.ARRAY:
 			case Type.OBJECT:
 			default:
-				// No conversion needed
+				if (targetVersion >= 7) {
+					mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "hashCode", "(Ljava/lang/Object;)I", false);
+				} else {
+					// value == null ? 0 : value.hashCode()
+					Object[] locals = hashField != null ? new Object[]{declaringType, INTEGER} : new Object[]{declaringType};
+					Label nonNull = new Label();
+					Label done = new Label();
+					mv.visitInsn(DUP);
+					mv.visitJumpInsn(IFNONNULL, nonNull);
+					mv.visitInsn(POP);
+					mv.visitInsn(ICONST_0);
+					mv.visitJumpInsn(GOTO, done);
+					mv.visitLabel(nonNull);
+					visitFrame(locals, INTEGER, type.getInternalName());
+					mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "hashCode", "()I", false);
+					mv.visitLabel(done);
+					visitFrame(locals, INTEGER, INTEGER);
+				}
 				break;
 		}
 	}
+
+	private void foldLongHash() {
+		// (int) (value ^ (value >>> 32))
+		mv.visitInsn(DUP2);
+		mv.visitIntInsn(BIPUSH, 32);
+		mv.visitInsn(LUSHR);
+		mv.visitInsn(LXOR);
+		mv.visitInsn(L2I);
+	}
 }
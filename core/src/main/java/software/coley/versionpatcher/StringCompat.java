@@ -3,10 +3,16 @@ package software.coley.versionpatcher;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class to substitute dynamic string concatenation.
+ * <br>
+ * Arguments are {@link #insert(Object) inserted} last to first, followed by the
+ * {@link #constant(String) constants} the recipe refers to, first to last.
+ * The recipe is then filled in with a single pass in {@link #build(String)}.
+ * <br>
+ * Recipes are parsed once into templates of literals and slots, which are shared between all threads.
  *
  * @author Matt Coley
  */
@@ -14,8 +20,35 @@ import java.util.regex.Matcher;
 public final class StringCompat {
 	private static final char TAG_ARG = '\u0001';
 	private static final char TAG_CONST = '\u0002';
-	private static final String TAG_ARG_STR = String.valueOf(TAG_ARG);
-	private final List<String> list = new ArrayList<>();
+	private static final int DEFAULT_CAPACITY = 8;
+	private static final int MAX_TEMPLATES = 1024;
+	// Slot markers, compared by identity so they never match a literal
+	private static final String ARG_SLOT = new String(new char[]{TAG_ARG});
+	private static final String CONST_SLOT = new String(new char[]{TAG_CONST});
+	// Recipes are loaded with ldc, so the same call site always passes the same interned instance.
+	// String.equals checks identity first and the hash is cached, so lookups do not need to compare contents.
+	private static final ConcurrentHashMap<String, String[]> TEMPLATES = new ConcurrentHashMap<>();
+	// Stored in insertion order, which is the reverse of the argument order
+	private String[] arguments;
+	private int argumentCount;
+	private String[] constants;
+	private int constantCount;
+	private int length;
+
+	/**
+	 * New instance with room for a default number of arguments.
+	 */
+	public StringCompat() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param argumentCount
+	 * 		Number of arguments that will be inserted.
+	 */
+	public StringCompat(int argumentCount) {
+		arguments = new String[argumentCount];
+	}
 
 	/**
 	 * @param value
@@ -215,41 +248,94 @@ public final class StringCompat {
 		return this;
 	}
 
+	/**
+	 * @param value
+	 * 		Constant referred to by the recipe.
+	 *
+	 * @return Self.
+	 */
+	public StringCompat constant(String value) {
+		if (constants == null)
+			constants = new String[DEFAULT_CAPACITY];
+		else if (constantCount == constants.length)
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		constants[constantCount++] = value;
+		length += value.length();
+		return this;
+	}
+
 	/**
 	 * @param value
 	 * 		Value to insert.
 	 */
 	private void add(String value) {
-		list.add(0, value);
+		if (argumentCount == arguments.length)
+			arguments = Arrays.copyOf(arguments, Math.max(DEFAULT_CAPACITY, argumentCount * 2));
+		arguments[argumentCount++] = value;
+		length += value.length();
 	}
 
 	/**
 	 * @param recipe
 	 * 		Template.
 	 *
-	 * @return Filled in string with internally stored arguments.
+	 * @return Filled in string with internally stored arguments and constants.
 	 */
 	public String build(String recipe) {
-		return compile(recipe, list);
+		String[] template = getTemplate(recipe);
+		StringBuilder sb = new StringBuilder(recipe.length() + length);
+		// Arguments were inserted in reverse
+		int argument = argumentCount;
+		int constant = 0;
+		for (String segment : template) {
+			// Slots without a value are left as their tag
+			if (segment == ARG_SLOT)
+				sb.append(argument > 0 ? arguments[--argument] : segment);
+			else if (segment == CONST_SLOT)
+				sb.append(constant < constantCount ? constants[constant++] : segment);
+			else
+				sb.append(segment);
+		}
+		return sb.toString();
 	}
 
 	/**
 	 * @param recipe
 	 * 		Template.
-	 * @param arguments
-	 * 		List of arguments to fill in.
-	 *
-	 * @return Filled in string.
-	 */
-	private static String compile(String recipe, List<String> arguments) {
-		int c = 0;
-		while (recipe.indexOf(TAG_ARG) >= 0) {
-			if (c == arguments.size())
-				return recipe;
-			String arg = arguments.get(c);
-			recipe = recipe.replaceFirst(TAG_ARG_STR, Matcher.quoteReplacement(arg));
-			c++;
+	 *
+	 * @return Parsed template, cached when there is room.
+	 */
+	private static String[] getTemplate(String recipe) {
+		String[] template = TEMPLATES.get(recipe);
+		if (template == null) {
+			template = parse(recipe);
+			// Once full, further recipes are parsed on every use rather than evicting others
+			if (TEMPLATES.size() < MAX_TEMPLATES)
+				TEMPLATES.putIfAbsent(recipe, template);
+		}
+		return template;
+	}
+
+	/**
+	 * @param recipe
+	 * 		Template.
+	 *
+	 * @return Literal chunks of the recipe, with {@link #ARG_SLOT} and {@link #CONST_SLOT} in place of tags.
+	 */
+	private static String[] parse(String recipe) {
+		List<String> segments = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i < recipe.length(); i++) {
+			char c = recipe.charAt(i);
+			if (c == TAG_ARG || c == TAG_CONST) {
+				if (i > start)
+					segments.add(recipe.substring(start, i));
+				segments.add(c == TAG_ARG ? ARG_SLOT : CONST_SLOT);
+				start = i + 1;
+			}
 		}
-		return recipe;
+		if (start < recipe.length())
+			segments.add(recipe.substring(start));
+		return segments.toArray(new String[0]);
 	}
 }
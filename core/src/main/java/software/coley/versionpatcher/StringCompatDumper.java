@@ -15,41 +15,103 @@ public class StringCompatDumper implements Opcodes {
 	 * @return Bytecode of {@link StringCompat}.
 	 */
 	public static byte[] dump() {
-		// Generated by https://plugins.jetbrains.com/plugin/5918-asm-bytecode-outline
-		// Modified slightly.
+		// Generated by ASMifier from the compiled StringCompat, with its name replaced by CLASS_NAME.
+		// Regenerate when changing StringCompat.
 		ClassWriter cw = new ClassWriter(0);
 		FieldVisitor fv;
 		MethodVisitor mv;
-		cw.visit(V1_7, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, CLASS_NAME, null, "java/lang/Object", null);
-		fv = cw.visitField(ACC_PRIVATE + ACC_FINAL + ACC_STATIC, "TAG_ARG", "C", null, 1);
-		fv.visitEnd();
-		fv = cw.visitField(ACC_PRIVATE + ACC_FINAL + ACC_STATIC, "TAG_CONST", "C", null, 2);
-		fv.visitEnd();
-		fv = cw.visitField(ACC_PRIVATE + ACC_FINAL + ACC_STATIC, "TAG_ARG_STR", "Ljava/lang/String;", null, null);
-		fv.visitEnd();
-		fv = cw.visitField(ACC_PRIVATE + ACC_FINAL, "list", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", null);
-		fv.visitEnd();
+		cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, "java/lang/Object", null);
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "TAG_ARG", "C", null, 1);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "TAG_CONST", "C", null, 2);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "DEFAULT_CAPACITY", "I", null, 8);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "MAX_TEMPLATES", "I", null, 1024);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "ARG_SLOT", "Ljava/lang/String;", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "CONST_SLOT", "Ljava/lang/String;", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE | ACC_FINAL | ACC_STATIC, "TEMPLATES", "Ljava/util/concurrent/ConcurrentHashMap;", "Ljava/util/concurrent/ConcurrentHashMap<Ljava/lang/String;[Ljava/lang/String;>;", null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE, "arguments", "[Ljava/lang/String;", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE, "argumentCount", "I", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE, "constants", "[Ljava/lang/String;", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE, "constantCount", "I", null, null);
+			fv.visitEnd();
+		}
+		{
+			fv = cw.visitField(ACC_PRIVATE, "length", "I", null, null);
+			fv.visitEnd();
+		}
 		{
 			mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(8, l0);
+			mv.visitLineNumber(42, l0);
 			mv.visitVarInsn(ALOAD, 0);
-			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+			mv.visitIntInsn(BIPUSH, 8);
+			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "<init>", "(I)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(12, l1);
-			mv.visitVarInsn(ALOAD, 0);
-			mv.visitTypeInsn(NEW, "java/util/ArrayList");
-			mv.visitInsn(DUP);
-			mv.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V", false);
-			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "list", "Ljava/util/List;");
+			mv.visitLineNumber(43, l1);
 			mv.visitInsn(RETURN);
 			Label l2 = new Label();
 			mv.visitLabel(l2);
 			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l2, 0);
-			mv.visitMaxs(3, 1);
+			mv.visitMaxs(2, 1);
+			mv.visitEnd();
+		}
+		{
+			mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(I)V", null, null);
+			mv.visitCode();
+			Label l0 = new Label();
+			mv.visitLabel(l0);
+			mv.visitLineNumber(49, l0);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+			Label l1 = new Label();
+			mv.visitLabel(l1);
+			mv.visitLineNumber(50, l1);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ILOAD, 1);
+			mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
+			Label l2 = new Label();
+			mv.visitLabel(l2);
+			mv.visitLineNumber(51, l2);
+			mv.visitInsn(RETURN);
+			Label l3 = new Label();
+			mv.visitLabel(l3);
+			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l3, 0);
+			mv.visitLocalVariable("argumentCount", "I", null, l0, l3, 1);
+			mv.visitMaxs(2, 2);
 			mv.visitEnd();
 		}
 		{
@@ -57,14 +119,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(15, l0);
+			mv.visitLineNumber(60, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ILOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(Z)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(16, l1);
+			mv.visitLineNumber(61, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -79,14 +141,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(20, l0);
+			mv.visitLineNumber(71, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ILOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(21, l1);
+			mv.visitLineNumber(72, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -101,14 +163,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(25, l0);
+			mv.visitLineNumber(82, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ILOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(C)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(26, l1);
+			mv.visitLineNumber(83, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -123,14 +185,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(30, l0);
+			mv.visitLineNumber(93, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ILOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(31, l1);
+			mv.visitLineNumber(94, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -145,14 +207,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(35, l0);
+			mv.visitLineNumber(104, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ILOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(36, l1);
+			mv.visitLineNumber(105, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -167,14 +229,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(40, l0);
+			mv.visitLineNumber(115, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(LLOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(J)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(41, l1);
+			mv.visitLineNumber(116, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -189,14 +251,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(45, l0);
+			mv.visitLineNumber(126, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(DLOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(D)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(46, l1);
+			mv.visitLineNumber(127, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -211,14 +273,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(50, l0);
+			mv.visitLineNumber(137, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(FLOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(F)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(51, l1);
+			mv.visitLineNumber(138, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -233,14 +295,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(55, l0);
+			mv.visitLineNumber(148, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([Z)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(56, l1);
+			mv.visitLineNumber(149, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -255,14 +317,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(60, l0);
+			mv.visitLineNumber(159, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([B)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(61, l1);
+			mv.visitLineNumber(160, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -277,14 +339,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(65, l0);
+			mv.visitLineNumber(170, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([C)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(66, l1);
+			mv.visitLineNumber(171, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -299,14 +361,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(70, l0);
+			mv.visitLineNumber(181, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([S)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(71, l1);
+			mv.visitLineNumber(182, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -321,14 +383,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(75, l0);
+			mv.visitLineNumber(192, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([I)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(76, l1);
+			mv.visitLineNumber(193, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -343,14 +405,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(80, l0);
+			mv.visitLineNumber(203, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([J)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(81, l1);
+			mv.visitLineNumber(204, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -365,14 +427,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(85, l0);
+			mv.visitLineNumber(214, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([D)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(86, l1);
+			mv.visitLineNumber(215, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -387,14 +449,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(90, l0);
+			mv.visitLineNumber(225, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([F)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(91, l1);
+			mv.visitLineNumber(226, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -409,14 +471,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(95, l0);
+			mv.visitLineNumber(236, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "toString", "([Ljava/lang/Object;)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(96, l1);
+			mv.visitLineNumber(237, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -431,14 +493,14 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(100, l0);
+			mv.visitLineNumber(247, l0);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
 			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;", false);
 			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "add", "(Ljava/lang/String;)V", false);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(101, l1);
+			mv.visitLineNumber(248, l1);
 			mv.visitVarInsn(ALOAD, 0);
 			mv.visitInsn(ARETURN);
 			Label l2 = new Label();
@@ -449,112 +511,466 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitEnd();
 		}
 		{
-			mv = cw.visitMethod(ACC_PRIVATE, "add", "(Ljava/lang/String;)V", null, null);
+			mv = cw.visitMethod(ACC_PUBLIC, "constant", "(Ljava/lang/String;)" + CLASS_DESCRIPTOR, null, null);
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(105, l0);
+			mv.visitLineNumber(258, l0);
 			mv.visitVarInsn(ALOAD, 0);
-			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "list", "Ljava/util/List;");
-			mv.visitInsn(ICONST_0);
-			mv.visitVarInsn(ALOAD, 1);
-			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(ILjava/lang/Object;)V", true);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
 			Label l1 = new Label();
-			mv.visitLabel(l1);
-			mv.visitLineNumber(106, l1);
-			mv.visitInsn(RETURN);
+			mv.visitJumpInsn(IFNONNULL, l1);
 			Label l2 = new Label();
 			mv.visitLabel(l2);
-			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l2, 0);
-			mv.visitLocalVariable("value", "Ljava/lang/String;", null, l0, l2, 1);
-			mv.visitMaxs(3, 2);
+			mv.visitLineNumber(259, l2);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitIntInsn(BIPUSH, 8);
+			mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			Label l3 = new Label();
+			mv.visitJumpInsn(GOTO, l3);
+			mv.visitLabel(l1);
+			mv.visitLineNumber(260, l1);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constantCount", "I");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			mv.visitInsn(ARRAYLENGTH);
+			mv.visitJumpInsn(IF_ICMPNE, l3);
+			Label l4 = new Label();
+			mv.visitLabel(l4);
+			mv.visitLineNumber(261, l4);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constantCount", "I");
+			mv.visitInsn(ICONST_2);
+			mv.visitInsn(IMUL);
+			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "copyOf", "([Ljava/lang/Object;I)[Ljava/lang/Object;", false);
+			mv.visitTypeInsn(CHECKCAST, "[Ljava/lang/String;");
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			mv.visitLabel(l3);
+			mv.visitLineNumber(262, l3);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitInsn(DUP);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constantCount", "I");
+			mv.visitInsn(DUP_X1);
+			mv.visitInsn(ICONST_1);
+			mv.visitInsn(IADD);
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "constantCount", "I");
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitInsn(AASTORE);
+			Label l5 = new Label();
+			mv.visitLabel(l5);
+			mv.visitLineNumber(263, l5);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitInsn(DUP);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "length", "I");
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+			mv.visitInsn(IADD);
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "length", "I");
+			Label l6 = new Label();
+			mv.visitLabel(l6);
+			mv.visitLineNumber(264, l6);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitInsn(ARETURN);
+			Label l7 = new Label();
+			mv.visitLabel(l7);
+			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l7, 0);
+			mv.visitLocalVariable("value", "Ljava/lang/String;", null, l0, l7, 1);
+			mv.visitMaxs(5, 2);
 			mv.visitEnd();
 		}
 		{
-			mv = cw.visitMethod(ACC_PUBLIC, "build", "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+			mv = cw.visitMethod(ACC_PRIVATE, "add", "(Ljava/lang/String;)V", null, null);
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(109, l0);
-			mv.visitVarInsn(ALOAD, 1);
+			mv.visitLineNumber(272, l0);
 			mv.visitVarInsn(ALOAD, 0);
-			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "list", "Ljava/util/List;");
-			mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, "compile", "(Ljava/lang/String;Ljava/util/List;)Ljava/lang/String;", false);
-			mv.visitInsn(ARETURN);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "argumentCount", "I");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
+			mv.visitInsn(ARRAYLENGTH);
 			Label l1 = new Label();
+			mv.visitJumpInsn(IF_ICMPNE, l1);
+			Label l2 = new Label();
+			mv.visitLabel(l2);
+			mv.visitLineNumber(273, l2);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
+			mv.visitIntInsn(BIPUSH, 8);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "argumentCount", "I");
+			mv.visitInsn(ICONST_2);
+			mv.visitInsn(IMUL);
+			mv.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+			mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "copyOf", "([Ljava/lang/Object;I)[Ljava/lang/Object;", false);
+			mv.visitTypeInsn(CHECKCAST, "[Ljava/lang/String;");
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
 			mv.visitLabel(l1);
-			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l1, 0);
-			mv.visitLocalVariable("pattern", "Ljava/lang/String;", null, l0, l1, 1);
-			mv.visitMaxs(2, 2);
+			mv.visitLineNumber(274, l1);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitInsn(DUP);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "argumentCount", "I");
+			mv.visitInsn(DUP_X1);
+			mv.visitInsn(ICONST_1);
+			mv.visitInsn(IADD);
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "argumentCount", "I");
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitInsn(AASTORE);
+			Label l3 = new Label();
+			mv.visitLabel(l3);
+			mv.visitLineNumber(275, l3);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitInsn(DUP);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "length", "I");
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+			mv.visitInsn(IADD);
+			mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "length", "I");
+			Label l4 = new Label();
+			mv.visitLabel(l4);
+			mv.visitLineNumber(276, l4);
+			mv.visitInsn(RETURN);
+			Label l5 = new Label();
+			mv.visitLabel(l5);
+			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l5, 0);
+			mv.visitLocalVariable("value", "Ljava/lang/String;", null, l0, l5, 1);
+			mv.visitMaxs(5, 2);
 			mv.visitEnd();
 		}
 		{
-			mv = cw.visitMethod(ACC_PRIVATE + ACC_STATIC, "compile", "(Ljava/lang/String;Ljava/util/List;)Ljava/lang/String;", "(Ljava/lang/String;Ljava/util/List<Ljava/lang/String;>;)Ljava/lang/String;", null);
+			mv = cw.visitMethod(ACC_PUBLIC, "build", "(Ljava/lang/String;)Ljava/lang/String;", null, null);
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(113, l0);
-			mv.visitInsn(ICONST_0);
-			mv.visitVarInsn(ISTORE, 2);
+			mv.visitLineNumber(285, l0);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, "getTemplate", "(Ljava/lang/String;)[Ljava/lang/String;", false);
+			mv.visitVarInsn(ASTORE, 2);
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitLineNumber(114, l1);
-			mv.visitFrame(Opcodes.F_APPEND, 1, new Object[]{Opcodes.INTEGER}, 0, null);
+			mv.visitLineNumber(286, l1);
+			mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
+			mv.visitInsn(DUP);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
 			mv.visitVarInsn(ALOAD, 0);
-			mv.visitInsn(ICONST_1);
-			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "indexOf", "(I)I", false);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "length", "I");
+			mv.visitInsn(IADD);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V", false);
+			mv.visitVarInsn(ASTORE, 3);
 			Label l2 = new Label();
-			mv.visitJumpInsn(IFLT, l2);
+			mv.visitLabel(l2);
+			mv.visitLineNumber(288, l2);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "argumentCount", "I");
+			mv.visitVarInsn(ISTORE, 4);
 			Label l3 = new Label();
 			mv.visitLabel(l3);
-			mv.visitLineNumber(115, l3);
-			mv.visitVarInsn(ILOAD, 2);
-			mv.visitVarInsn(ALOAD, 1);
-			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "size", "()I", true);
+			mv.visitLineNumber(289, l3);
+			mv.visitInsn(ICONST_0);
+			mv.visitVarInsn(ISTORE, 5);
 			Label l4 = new Label();
-			mv.visitJumpInsn(IF_ICMPNE, l4);
+			mv.visitLabel(l4);
+			mv.visitLineNumber(290, l4);
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitVarInsn(ASTORE, 6);
+			mv.visitVarInsn(ALOAD, 6);
+			mv.visitInsn(ARRAYLENGTH);
+			mv.visitVarInsn(ISTORE, 7);
+			mv.visitInsn(ICONST_0);
+			mv.visitVarInsn(ISTORE, 8);
 			Label l5 = new Label();
 			mv.visitLabel(l5);
-			mv.visitLineNumber(116, l5);
-			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFrame(Opcodes.F_FULL, 9, new Object[] {CLASS_NAME, "java/lang/String", "[Ljava/lang/String;", "java/lang/StringBuilder", Opcodes.INTEGER, Opcodes.INTEGER, "[Ljava/lang/String;", Opcodes.INTEGER, Opcodes.INTEGER}, 0, new Object[] {});
+			mv.visitVarInsn(ILOAD, 8);
+			mv.visitVarInsn(ILOAD, 7);
+			Label l6 = new Label();
+			mv.visitJumpInsn(IF_ICMPGE, l6);
+			mv.visitVarInsn(ALOAD, 6);
+			mv.visitVarInsn(ILOAD, 8);
+			mv.visitInsn(AALOAD);
+			mv.visitVarInsn(ASTORE, 9);
+			Label l7 = new Label();
+			mv.visitLabel(l7);
+			mv.visitLineNumber(292, l7);
+			mv.visitVarInsn(ALOAD, 9);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "ARG_SLOT", "Ljava/lang/String;");
+			Label l8 = new Label();
+			mv.visitJumpInsn(IF_ACMPNE, l8);
+			Label l9 = new Label();
+			mv.visitLabel(l9);
+			mv.visitLineNumber(293, l9);
+			mv.visitVarInsn(ALOAD, 3);
+			mv.visitVarInsn(ILOAD, 4);
+			Label l10 = new Label();
+			mv.visitJumpInsn(IFLE, l10);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "arguments", "[Ljava/lang/String;");
+			mv.visitIincInsn(4, -1);
+			mv.visitVarInsn(ILOAD, 4);
+			mv.visitInsn(AALOAD);
+			Label l11 = new Label();
+			mv.visitJumpInsn(GOTO, l11);
+			mv.visitLabel(l10);
+			mv.visitFrame(Opcodes.F_FULL, 10, new Object[] {CLASS_NAME, "java/lang/String", "[Ljava/lang/String;", "java/lang/StringBuilder", Opcodes.INTEGER, Opcodes.INTEGER, "[Ljava/lang/String;", Opcodes.INTEGER, Opcodes.INTEGER, "java/lang/String"}, 1, new Object[] {"java/lang/StringBuilder"});
+			mv.visitVarInsn(ALOAD, 9);
+			mv.visitLabel(l11);
+			mv.visitFrame(Opcodes.F_FULL, 10, new Object[] {CLASS_NAME, "java/lang/String", "[Ljava/lang/String;", "java/lang/StringBuilder", Opcodes.INTEGER, Opcodes.INTEGER, "[Ljava/lang/String;", Opcodes.INTEGER, Opcodes.INTEGER, "java/lang/String"}, 2, new Object[] {"java/lang/StringBuilder", "java/lang/String"});
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+			mv.visitInsn(POP);
+			Label l12 = new Label();
+			mv.visitJumpInsn(GOTO, l12);
+			mv.visitLabel(l8);
+			mv.visitLineNumber(294, l8);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 9);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "CONST_SLOT", "Ljava/lang/String;");
+			Label l13 = new Label();
+			mv.visitJumpInsn(IF_ACMPNE, l13);
+			Label l14 = new Label();
+			mv.visitLabel(l14);
+			mv.visitLineNumber(295, l14);
+			mv.visitVarInsn(ALOAD, 3);
+			mv.visitVarInsn(ILOAD, 5);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constantCount", "I");
+			Label l15 = new Label();
+			mv.visitJumpInsn(IF_ICMPGE, l15);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "constants", "[Ljava/lang/String;");
+			mv.visitVarInsn(ILOAD, 5);
+			mv.visitIincInsn(5, 1);
+			mv.visitInsn(AALOAD);
+			Label l16 = new Label();
+			mv.visitJumpInsn(GOTO, l16);
+			mv.visitLabel(l15);
+			mv.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/lang/StringBuilder"});
+			mv.visitVarInsn(ALOAD, 9);
+			mv.visitLabel(l16);
+			mv.visitFrame(Opcodes.F_FULL, 10, new Object[] {CLASS_NAME, "java/lang/String", "[Ljava/lang/String;", "java/lang/StringBuilder", Opcodes.INTEGER, Opcodes.INTEGER, "[Ljava/lang/String;", Opcodes.INTEGER, Opcodes.INTEGER, "java/lang/String"}, 2, new Object[] {"java/lang/StringBuilder", "java/lang/String"});
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+			mv.visitInsn(POP);
+			mv.visitJumpInsn(GOTO, l12);
+			mv.visitLabel(l13);
+			mv.visitLineNumber(297, l13);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 3);
+			mv.visitVarInsn(ALOAD, 9);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+			mv.visitInsn(POP);
+			mv.visitLabel(l12);
+			mv.visitLineNumber(290, l12);
+			mv.visitFrame(Opcodes.F_CHOP, 1, null, 0, null);
+			mv.visitIincInsn(8, 1);
+			mv.visitJumpInsn(GOTO, l5);
+			mv.visitLabel(l6);
+			mv.visitLineNumber(299, l6);
+			mv.visitFrame(Opcodes.F_CHOP,3, null, 0, null);
+			mv.visitVarInsn(ALOAD, 3);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
 			mv.visitInsn(ARETURN);
+			Label l17 = new Label();
+			mv.visitLabel(l17);
+			mv.visitLocalVariable("segment", "Ljava/lang/String;", null, l7, l12, 9);
+			mv.visitLocalVariable("this", CLASS_DESCRIPTOR, null, l0, l17, 0);
+			mv.visitLocalVariable("recipe", "Ljava/lang/String;", null, l0, l17, 1);
+			mv.visitLocalVariable("template", "[Ljava/lang/String;", null, l1, l17, 2);
+			mv.visitLocalVariable("sb", "Ljava/lang/StringBuilder;", null, l2, l17, 3);
+			mv.visitLocalVariable("argument", "I", null, l3, l17, 4);
+			mv.visitLocalVariable("constant", "I", null, l4, l17, 5);
+			mv.visitMaxs(4, 10);
+			mv.visitEnd();
+		}
+		{
+			mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "getTemplate", "(Ljava/lang/String;)[Ljava/lang/String;", null, null);
+			mv.visitCode();
+			Label l0 = new Label();
+			mv.visitLabel(l0);
+			mv.visitLineNumber(309, l0);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "TEMPLATES", "Ljava/util/concurrent/ConcurrentHashMap;");
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/util/concurrent/ConcurrentHashMap", "get", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+			mv.visitTypeInsn(CHECKCAST, "[Ljava/lang/String;");
+			mv.visitVarInsn(ASTORE, 1);
+			Label l1 = new Label();
+			mv.visitLabel(l1);
+			mv.visitLineNumber(310, l1);
+			mv.visitVarInsn(ALOAD, 1);
+			Label l2 = new Label();
+			mv.visitJumpInsn(IFNONNULL, l2);
+			Label l3 = new Label();
+			mv.visitLabel(l3);
+			mv.visitLineNumber(311, l3);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKESTATIC, CLASS_NAME, "parse", "(Ljava/lang/String;)[Ljava/lang/String;", false);
+			mv.visitVarInsn(ASTORE, 1);
+			Label l4 = new Label();
 			mv.visitLabel(l4);
-			mv.visitLineNumber(117, l4);
-			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitLineNumber(313, l4);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "TEMPLATES", "Ljava/util/concurrent/ConcurrentHashMap;");
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/util/concurrent/ConcurrentHashMap", "size", "()I", false);
+			mv.visitIntInsn(SIPUSH, 1024);
+			mv.visitJumpInsn(IF_ICMPGE, l2);
+			Label l5 = new Label();
+			mv.visitLabel(l5);
+			mv.visitLineNumber(314, l5);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "TEMPLATES", "Ljava/util/concurrent/ConcurrentHashMap;");
+			mv.visitVarInsn(ALOAD, 0);
 			mv.visitVarInsn(ALOAD, 1);
-			mv.visitVarInsn(ILOAD, 2);
-			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;", true);
-			mv.visitTypeInsn(CHECKCAST, "java/lang/String");
-			mv.visitVarInsn(ASTORE, 3);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/util/concurrent/ConcurrentHashMap", "putIfAbsent", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+			mv.visitInsn(POP);
+			mv.visitLabel(l2);
+			mv.visitLineNumber(316, l2);
+			mv.visitFrame(Opcodes.F_APPEND, 1, new Object[] {"[Ljava/lang/String;"}, 0, null);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitInsn(ARETURN);
 			Label l6 = new Label();
 			mv.visitLabel(l6);
-			mv.visitLineNumber(118, l6);
+			mv.visitLocalVariable("recipe", "Ljava/lang/String;", null, l0, l6, 0);
+			mv.visitLocalVariable("template", "[Ljava/lang/String;", null, l1, l6, 1);
+			mv.visitMaxs(3, 2);
+			mv.visitEnd();
+		}
+		{
+			mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "parse", "(Ljava/lang/String;)[Ljava/lang/String;", null, null);
+			mv.visitCode();
+			Label l0 = new Label();
+			mv.visitLabel(l0);
+			mv.visitLineNumber(326, l0);
+			mv.visitTypeInsn(NEW, "java/util/ArrayList");
+			mv.visitInsn(DUP);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V", false);
+			mv.visitVarInsn(ASTORE, 1);
+			Label l1 = new Label();
+			mv.visitLabel(l1);
+			mv.visitLineNumber(327, l1);
+			mv.visitInsn(ICONST_0);
+			mv.visitVarInsn(ISTORE, 2);
+			Label l2 = new Label();
+			mv.visitLabel(l2);
+			mv.visitLineNumber(328, l2);
+			mv.visitInsn(ICONST_0);
+			mv.visitVarInsn(ISTORE, 3);
+			Label l3 = new Label();
+			mv.visitLabel(l3);
+			mv.visitFrame(Opcodes.F_APPEND,3, new Object[] {"java/util/List", Opcodes.INTEGER, Opcodes.INTEGER}, 0, null);
+			mv.visitVarInsn(ILOAD, 3);
 			mv.visitVarInsn(ALOAD, 0);
-			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "TAG_ARG_STR", "Ljava/lang/String;");
-			mv.visitVarInsn(ALOAD, 3);
-			mv.visitMethodInsn(INVOKESTATIC, "java/util/regex/Matcher", "quoteReplacement", "(Ljava/lang/String;)Ljava/lang/String;", false);
-			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "replaceFirst", "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;", false);
-			mv.visitVarInsn(ASTORE, 0);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+			Label l4 = new Label();
+			mv.visitJumpInsn(IF_ICMPGE, l4);
+			Label l5 = new Label();
+			mv.visitLabel(l5);
+			mv.visitLineNumber(329, l5);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ILOAD, 3);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false);
+			mv.visitVarInsn(ISTORE, 4);
+			Label l6 = new Label();
+			mv.visitLabel(l6);
+			mv.visitLineNumber(330, l6);
+			mv.visitVarInsn(ILOAD, 4);
+			mv.visitInsn(ICONST_1);
 			Label l7 = new Label();
-			mv.visitLabel(l7);
-			mv.visitLineNumber(119, l7);
-			mv.visitIincInsn(2, 1);
+			mv.visitJumpInsn(IF_ICMPEQ, l7);
+			mv.visitVarInsn(ILOAD, 4);
+			mv.visitInsn(ICONST_2);
 			Label l8 = new Label();
-			mv.visitLabel(l8);
-			mv.visitLineNumber(120, l8);
-			mv.visitJumpInsn(GOTO, l1);
-			mv.visitLabel(l2);
-			mv.visitLineNumber(121, l2);
+			mv.visitJumpInsn(IF_ICMPNE, l8);
+			mv.visitLabel(l7);
+			mv.visitLineNumber(331, l7);
+			mv.visitFrame(Opcodes.F_APPEND, 1, new Object[] {Opcodes.INTEGER}, 0, null);
+			mv.visitVarInsn(ILOAD, 3);
+			mv.visitVarInsn(ILOAD, 2);
+			Label l9 = new Label();
+			mv.visitJumpInsn(IF_ICMPLE, l9);
+			Label l10 = new Label();
+			mv.visitLabel(l10);
+			mv.visitLineNumber(332, l10);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ILOAD, 2);
+			mv.visitVarInsn(ILOAD, 3);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;", false);
+			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
+			mv.visitInsn(POP);
+			mv.visitLabel(l9);
+			mv.visitLineNumber(333, l9);
 			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ILOAD, 4);
+			mv.visitInsn(ICONST_1);
+			Label l11 = new Label();
+			mv.visitJumpInsn(IF_ICMPNE, l11);
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "ARG_SLOT", "Ljava/lang/String;");
+			Label l12 = new Label();
+			mv.visitJumpInsn(GOTO, l12);
+			mv.visitLabel(l11);
+			mv.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/util/List"});
+			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "CONST_SLOT", "Ljava/lang/String;");
+			mv.visitLabel(l12);
+			mv.visitFrame(Opcodes.F_FULL, 5, new Object[] {"java/lang/String", "java/util/List", Opcodes.INTEGER, Opcodes.INTEGER, Opcodes.INTEGER}, 2, new Object[] {"java/util/List", "java/lang/String"});
+			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
+			mv.visitInsn(POP);
+			Label l13 = new Label();
+			mv.visitLabel(l13);
+			mv.visitLineNumber(334, l13);
+			mv.visitVarInsn(ILOAD, 3);
+			mv.visitInsn(ICONST_1);
+			mv.visitInsn(IADD);
+			mv.visitVarInsn(ISTORE, 2);
+			mv.visitLabel(l8);
+			mv.visitLineNumber(328, l8);
+			mv.visitFrame(Opcodes.F_CHOP, 1, null, 0, null);
+			mv.visitIincInsn(3, 1);
+			mv.visitJumpInsn(GOTO, l3);
+			mv.visitLabel(l4);
+			mv.visitLineNumber(337, l4);
+			mv.visitFrame(Opcodes.F_CHOP, 1, null, 0, null);
+			mv.visitVarInsn(ILOAD, 2);
 			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+			Label l14 = new Label();
+			mv.visitJumpInsn(IF_ICMPGE, l14);
+			Label l15 = new Label();
+			mv.visitLabel(l15);
+			mv.visitLineNumber(338, l15);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ILOAD, 2);
+			mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring", "(I)Ljava/lang/String;", false);
+			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
+			mv.visitInsn(POP);
+			mv.visitLabel(l14);
+			mv.visitLineNumber(339, l14);
+			mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitInsn(ICONST_0);
+			mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+			mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "toArray", "([Ljava/lang/Object;)[Ljava/lang/Object;", true);
+			mv.visitTypeInsn(CHECKCAST, "[Ljava/lang/String;");
 			mv.visitInsn(ARETURN);
-			Label l9 = new Label();
-			mv.visitLabel(l9);
-			mv.visitLocalVariable("arg", "Ljava/lang/String;", null, l6, l8, 3);
-			mv.visitLocalVariable("recipe", "Ljava/lang/String;", null, l0, l9, 0);
-			mv.visitLocalVariable("arguments", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", l0, l9, 1);
-			mv.visitLocalVariable("c", "I", null, l1, l9, 2);
-			mv.visitMaxs(3, 4);
+			Label l16 = new Label();
+			mv.visitLabel(l16);
+			mv.visitLocalVariable("c", "C", null, l6, l8, 4);
+			mv.visitLocalVariable("i", "I", null, l3, l4, 3);
+			mv.visitLocalVariable("recipe", "Ljava/lang/String;", null, l0, l16, 0);
+			mv.visitLocalVariable("segments", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", l1, l16, 1);
+			mv.visitLocalVariable("start", "I", null, l2, l16, 2);
+			mv.visitMaxs(4, 5);
 			mv.visitEnd();
 		}
 		{
@@ -562,14 +978,39 @@ public class StringCompatDumper implements Opcodes {
 			mv.visitCode();
 			Label l0 = new Label();
 			mv.visitLabel(l0);
-			mv.visitLineNumber(11, l0);
+			mv.visitLineNumber(26, l0);
+			mv.visitTypeInsn(NEW, "java/lang/String");
+			mv.visitInsn(DUP);
 			mv.visitInsn(ICONST_1);
-			mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "TAG_ARG", "C");
-			mv.visitFieldInsn(GETSTATIC, CLASS_NAME, "TAG_ARG", "C");
-			mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(C)Ljava/lang/String;", false);
-			mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "TAG_ARG_STR", "Ljava/lang/String;");
+			mv.visitIntInsn(NEWARRAY, T_CHAR);
+			mv.visitInsn(DUP);
+			mv.visitInsn(ICONST_0);
+			mv.visitInsn(ICONST_1);
+			mv.visitInsn(CASTORE);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+			mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "ARG_SLOT", "Ljava/lang/String;");
+			Label l1 = new Label();
+			mv.visitLabel(l1);
+			mv.visitLineNumber(27, l1);
+			mv.visitTypeInsn(NEW, "java/lang/String");
+			mv.visitInsn(DUP);
+			mv.visitInsn(ICONST_1);
+			mv.visitIntInsn(NEWARRAY, T_CHAR);
+			mv.visitInsn(DUP);
+			mv.visitInsn(ICONST_0);
+			mv.visitInsn(ICONST_2);
+			mv.visitInsn(CASTORE);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+			mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "CONST_SLOT", "Ljava/lang/String;");
+			Label l2 = new Label();
+			mv.visitLabel(l2);
+			mv.visitLineNumber(30, l2);
+			mv.visitTypeInsn(NEW, "java/util/concurrent/ConcurrentHashMap");
+			mv.visitInsn(DUP);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/util/concurrent/ConcurrentHashMap", "<init>", "()V", false);
+			mv.visitFieldInsn(PUTSTATIC, CLASS_NAME, "TEMPLATES", "Ljava/util/concurrent/ConcurrentHashMap;");
 			mv.visitInsn(RETURN);
-			mv.visitMaxs(1, 0);
+			mv.visitMaxs(6, 0);
 			mv.visitEnd();
 		}
 		cw.visitEnd();
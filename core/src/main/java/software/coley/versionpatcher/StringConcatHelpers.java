@@ -0,0 +1,74 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Synthetic {@code concat$N} methods of a class, for {@link StringConcatStrategy#HELPER}.
+ * Helpers are numbered in the order their recipes are first seen, so the output is stable for the same input.
+ *
+ * @author Matt Coley
+ */
+public class StringConcatHelpers implements Opcodes {
+	private static final String PREFIX = "concat$";
+	private final Map<StringConcatRecipe, String> helpers = new LinkedHashMap<>();
+	private final String owner;
+	private final boolean isInterface;
+
+	/**
+	 * @param owner
+	 * 		Internal name of the class the helpers are added to.
+	 * @param isInterface
+	 * 		Whether the class is an interface.
+	 */
+	public StringConcatHelpers(String owner, boolean isInterface) {
+		this.owner = owner;
+		this.isInterface = isInterface;
+	}
+
+	/**
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param recipe
+	 * 		Recipe of the call site, with its arguments on the stack.
+	 */
+	public void emitCall(MethodVisitor mv, StringConcatRecipe recipe) {
+		String name = helpers.computeIfAbsent(recipe, r -> PREFIX + helpers.size());
+		mv.visitMethodInsn(INVOKESTATIC, owner, name, getDescriptor(recipe), isInterface);
+	}
+
+	/**
+	 * Adds the helpers used so far to the class.
+	 *
+	 * @param cv
+	 * 		Class to add to.
+	 */
+	public void visitHelpers(ClassVisitor cv) {
+		// Interfaces cannot have private methods before Java 9
+		int access = (isInterface ? ACC_PUBLIC : ACC_PRIVATE) | ACC_STATIC | ACC_SYNTHETIC;
+		helpers.forEach((recipe, name) -> {
+			Type[] arguments = recipe.getArguments();
+			int[] locals = new int[arguments.length];
+			int local = 0;
+			for (int i = 0; i < arguments.length; i++) {
+				locals[i] = local;
+				local += arguments[i].getSize();
+			}
+			MethodVisitor mv = cv.visitMethod(access, name, getDescriptor(recipe), null, null);
+			mv.visitCode();
+			recipe.emit(mv, locals);
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(3, local);
+			mv.visitEnd();
+		});
+	}
+
+	private static String getDescriptor(StringConcatRecipe recipe) {
+		return Type.getMethodDescriptor(Type.getType(String.class), recipe.getArguments());
+	}
+}
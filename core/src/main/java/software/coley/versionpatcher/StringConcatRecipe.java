@@ -0,0 +1,237 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * Recipe of a {@code makeConcatWithConstants} call site, parsed at patch time into literals and argument slots.
+ * Constants referenced by the recipe are resolved into the literals, so the runtime cost is only appending.
+ * <br>
+ * Recipes can also be {@link #of(Type[], List) built directly}, for other generated string building code.
+ *
+ * @author Matt Coley
+ */
+public class StringConcatRecipe implements Opcodes {
+	private static final char TAG_ARG = '\u0001';
+	private static final char TAG_CONST = '\u0002';
+	private static final String BUILDER = "java/lang/StringBuilder";
+	/**
+	 * Estimated appended length of arguments of types that are not a fixed size.
+	 */
+	private static final int DEFAULT_ARGUMENT_LENGTH = 16;
+	private final Type[] arguments;
+	// Either a literal String, or the Integer index of an argument
+	private final List<Object> segments;
+	private final int literalLength;
+
+	private StringConcatRecipe(Type[] arguments, List<Object> segments, int literalLength) {
+		this.arguments = arguments;
+		this.segments = segments;
+		this.literalLength = literalLength;
+	}
+
+	/**
+	 * @param arguments
+	 * 		Argument types, in order.
+	 * @param segments
+	 * 		Literal {@link String} segments, and {@link Integer} indices of arguments.
+	 * 		Adjacent literals are merged.
+	 *
+	 * @return Recipe of the given segments.
+	 */
+	public static StringConcatRecipe of(Type[] arguments, List<Object> segments) {
+		List<Object> merged = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int literalLength = 0;
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				literal.append((String) segment);
+				continue;
+			}
+			if (literal.length() > 0) {
+				merged.add(literal.toString());
+				literalLength += literal.length();
+				literal.setLength(0);
+			}
+			merged.add(segment);
+		}
+		if (literal.length() > 0) {
+			merged.add(literal.toString());
+			literalLength += literal.length();
+		}
+		return new StringConcatRecipe(arguments, merged, literalLength);
+	}
+
+	/**
+	 * @param descriptor
+	 * 		Descriptor of the invoke-dynamic instruction.
+	 * @param bsmArgs
+	 * 		Bootstrap arguments of the instruction, the recipe followed by the constants it refers to.
+	 *
+	 * @return Parsed recipe.
+	 */
+	public static StringConcatRecipe parse(String descriptor, Object[] bsmArgs) {
+		Type[] arguments = Type.getArgumentTypes(descriptor);
+		String recipe = (String) bsmArgs[0];
+		List<Object> segments = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int literalLength = 0;
+		int argument = 0;
+		int constant = 1;
+		for (int i = 0; i < recipe.length(); i++) {
+			char c = recipe.charAt(i);
+			if (c == TAG_ARG) {
+				if (argument == arguments.length)
+					throw new IllegalStateException("Recipe refers to more arguments than given: " + descriptor);
+				if (literal.length() > 0) {
+					segments.add(literal.toString());
+					literalLength += literal.length();
+					literal.setLength(0);
+				}
+				segments.add(argument++);
+			} else if (c == TAG_CONST) {
+				if (constant == bsmArgs.length)
+					throw new IllegalStateException("Recipe refers to more constants than given: " + descriptor);
+				literal.append(bsmArgs[constant++]);
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			segments.add(literal.toString());
+			literalLength += literal.length();
+		}
+		return new StringConcatRecipe(arguments, segments, literalLength);
+	}
+
+	/**
+	 * @return Argument types of the call site, in order.
+	 */
+	public Type[] getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Emits code building the string, leaving it on the stack. Requires up to 3 stack slots.
+	 *
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param argumentLocals
+	 * 		Local variable index holding each argument.
+	 */
+	public void emit(MethodVisitor mv, int[] argumentLocals) {
+		emit(mv, index -> mv.visitVarInsn(arguments[index].getOpcode(ILOAD), argumentLocals[index]));
+	}
+
+	/**
+	 * Emits code building the string, leaving it on the stack. Requires up to 3 stack slots,
+	 * plus any used by the argument loader.
+	 *
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param argumentLoader
+	 * 		Emits code pushing the argument of the given index.
+	 */
+	public void emit(MethodVisitor mv, IntConsumer argumentLoader) {
+		mv.visitTypeInsn(NEW, BUILDER);
+		mv.visitInsn(DUP);
+		pushInt(mv, getEstimatedLength());
+		mv.visitMethodInsn(INVOKESPECIAL, BUILDER, "<init>", "(I)V", false);
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				mv.visitLdcInsn(segment);
+				mv.visitMethodInsn(INVOKEVIRTUAL, BUILDER, "append", "(Ljava/lang/String;)L" + BUILDER + ";", false);
+			} else {
+				int index = (Integer) segment;
+				Type type = arguments[index];
+				argumentLoader.accept(index);
+				mv.visitMethodInsn(INVOKEVIRTUAL, BUILDER, "append", "(" + getAppendType(type) + ")L" + BUILDER + ";", false);
+			}
+		}
+		mv.visitMethodInsn(INVOKEVIRTUAL, BUILDER, "toString", "()Ljava/lang/String;", false);
+	}
+
+	private int getEstimatedLength() {
+		long length = literalLength;
+		for (Object segment : segments) {
+			if (segment instanceof Integer)
+				length += getEstimatedLength(arguments[(Integer) segment]);
+		}
+		return (int) Math.min(length, Short.MAX_VALUE);
+	}
+
+	private static int getEstimatedLength(Type type) {
+		switch (type.getSort()) {
+			case Type.BOOLEAN:
+				return 5;
+			case Type.CHAR:
+				return 1;
+			case Type.BYTE:
+				return 4;
+			case Type.SHORT:
+				return 6;
+			case Type.INT:
+				return 11;
+			case Type.LONG:
+				return 20;
+			default:
+				return DEFAULT_ARGUMENT_LENGTH;
+		}
+	}
+
+	/**
+	 * @param type
+	 * 		Argument type.
+	 *
+	 * @return Parameter type of the {@link StringBuilder} append method matching how the indy concat
+	 * converts the type to a string.
+	 */
+	private static String getAppendType(Type type) {
+		switch (type.getSort()) {
+			case Type.BOOLEAN:
+			case Type.CHAR:
+			case Type.LONG:
+			case Type.FLOAT:
+			case Type.DOUBLE:
+				return type.getDescriptor();
+			case Type.BYTE:
+			case Type.SHORT:
+			case Type.INT:
+				return "I";
+			default:
+				// Arrays, including char arrays, are converted with String.valueOf(Object)
+				if (type.getDescriptor().equals("Ljava/lang/String;"))
+					return "Ljava/lang/String;";
+				return "Ljava/lang/Object;";
+		}
+	}
+
+	static void pushInt(MethodVisitor mv, int value) {
+		if (value <= 5)
+			mv.visitInsn(ICONST_0 + value);
+		else if (value <= Byte.MAX_VALUE)
+			mv.visitIntInsn(BIPUSH, value);
+		else
+			mv.visitIntInsn(SIPUSH, value);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		StringConcatRecipe other = (StringConcatRecipe) o;
+		return Arrays.equals(arguments, other.arguments) && segments.equals(other.segments);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(Arrays.hashCode(arguments), segments);
+	}
+}
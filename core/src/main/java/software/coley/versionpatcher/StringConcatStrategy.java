@@ -0,0 +1,24 @@
+package software.coley.versionpatcher;
+
+/**
+ * Ways of replacing Java 9+ string concatenation with code that runs on older versions.
+ *
+ * @author Matt Coley
+ */
+public enum StringConcatStrategy {
+	/**
+	 * Arguments are passed to a {@link StringCompat} instance, which fills in the recipe at runtime.
+	 * The {@link StringCompatDumper generated class} must be shipped with the patched classes.
+	 */
+	COMPAT,
+	/**
+	 * Each call site is replaced by a presized {@link StringBuilder} chain, with the constant parts of the
+	 * recipe appended as literals. No runtime support is needed, but call sites grow with their argument count.
+	 */
+	INLINE,
+	/**
+	 * Each unique recipe and argument list gets a synthetic static {@code concat$N} method in the declaring class
+	 * that builds the string as {@link #INLINE} would. Call sites are replaced by a single call to it.
+	 */
+	HELPER
+}
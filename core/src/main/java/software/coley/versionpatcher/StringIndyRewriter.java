@@ -6,15 +6,48 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 /**
- * A method visitor that replaces Java 9+ string concatenation with {@link StringCompat}.
+ * A method visitor that replaces Java 9+ string concatenation, using one of the {@link StringConcatStrategy strategies}.
  *
  * @author Matt Coley
  */
 public class StringIndyRewriter extends MethodVisitor implements Opcodes {
+	private final StringConcatStrategy strategy;
+	private final StringConcatHelpers helpers;
+	private final int firstFreeLocal;
+	private int spillSize;
 	private int replaced;
 
+	/**
+	 * Rewriter using {@link StringConcatStrategy#COMPAT}.
+	 *
+	 * @param mv
+	 * 		Parent method visitor.
+	 */
 	public StringIndyRewriter(MethodVisitor mv) {
+		this(mv, StringConcatStrategy.COMPAT, -1, null);
+	}
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param strategy
+	 * 		Strategy to replace string concatenation with.
+	 * @param firstFreeLocal
+	 * 		First local variable index not used by the method, required for {@link StringConcatStrategy#INLINE}.
+	 * 		Arguments are moved from the stack into locals starting at this index.
+	 * @param helpers
+	 * 		Helpers of the declaring class, required for {@link StringConcatStrategy#HELPER}.
+	 */
+	public StringIndyRewriter(MethodVisitor mv, StringConcatStrategy strategy, int firstFreeLocal,
+							  StringConcatHelpers helpers) {
 		super(Opcodes.ASM9, mv);
+		if (strategy == StringConcatStrategy.INLINE && firstFreeLocal < 0)
+			throw new IllegalArgumentException("Inline strategy requires the first free local");
+		if (strategy == StringConcatStrategy.HELPER && helpers == null)
+			throw new IllegalArgumentException("Helper strategy requires class helpers");
+		this.strategy = strategy;
+		this.firstFreeLocal = firstFreeLocal;
+		this.helpers = helpers;
 	}
 
 	/**
@@ -24,35 +57,26 @@ public class StringIndyRewriter extends MethodVisitor implements Opcodes {
 		return replaced;
 	}
 
+	/**
+	 * @param indyName
+	 * 		Name of an invoke-dynamic instruction.
+	 *
+	 * @return {@code true} when the instruction is one handled by {@link StringIndyRewriter}.
+	 */
+	public static boolean isStringConcat(String indyName) {
+		return indyName.equals("makeConcatWithConstants");
+	}
+
 	@Override
 	public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsmHandle, Object... bsmArgs) {
 		// Match indy's for the Java 9+ string format
-		if (name.equals("makeConcatWithConstants")) {
-			// Create the concat replace
-			visitTypeInsn(NEW, StringCompatDumper.CLASS_NAME);
-			visitInsn(DUP);
-			visitMethodInsn(INVOKESPECIAL, StringCompatDumper.CLASS_NAME, "<init>", "()V", false);
-			// Visit each arg type in reverse order
-			Type targetDesc = Type.getMethodType(descriptor);
-			Type[] args = targetDesc.getArgumentTypes();
-			for (int i = args.length - 1; i >= 0; i--) {
-				Type arg = args[i];
-				if (arg.getSize() == 1) {
-					// Make sure the argument is on top of the stack with a simple swap
-					visitInsn(SWAP);
-				} else {
-					// Long/double require some more to reorder things.
-					// - Insert a copy of the concat below the long/double
-					// - Delete the top copy
-					visitInsn(DUP_X2);
-					visitInsn(POP);
-				}
-				String compatType = getCompatType(arg);
-				visitMethodInsn(INVOKEVIRTUAL, StringCompatDumper.CLASS_NAME, "insert", "(" + compatType + ")" + StringCompatDumper.CLASS_DESCRIPTOR, false);
-			}
-			// Visit the pattern string and print the value
-			visitLdcInsn(bsmArgs[0]);
-			visitMethodInsn(INVOKEVIRTUAL, StringCompatDumper.CLASS_NAME, "build", "(Ljava/lang/String;)Ljava/lang/String;", false);
+		if (isStringConcat(name)) {
+			if (strategy == StringConcatStrategy.INLINE)
+				visitInline(StringConcatRecipe.parse(descriptor, bsmArgs));
+			else if (strategy == StringConcatStrategy.HELPER)
+				helpers.emitCall(mv, StringConcatRecipe.parse(descriptor, bsmArgs));
+			else
+				visitCompat(descriptor, bsmArgs);
 			// Increment count
 			replaced++;
 		} else {
@@ -60,10 +84,62 @@ public class StringIndyRewriter extends MethodVisitor implements Opcodes {
 		}
 	}
 
+	private void visitInline(StringConcatRecipe recipe) {
+		// Move the arguments off the stack, last argument first
+		Type[] arguments = recipe.getArguments();
+		int[] locals = new int[arguments.length];
+		int local = firstFreeLocal;
+		for (int i = 0; i < arguments.length; i++) {
+			locals[i] = local;
+			local += arguments[i].getSize();
+		}
+		for (int i = arguments.length - 1; i >= 0; i--)
+			super.visitVarInsn(arguments[i].getOpcode(ISTORE), locals[i]);
+		spillSize = Math.max(spillSize, local - firstFreeLocal);
+		recipe.emit(mv, locals);
+	}
+
+	private void visitCompat(String descriptor, Object[] bsmArgs) {
+		// Create the concat replace, sized for the arguments
+		Type targetDesc = Type.getMethodType(descriptor);
+		Type[] args = targetDesc.getArgumentTypes();
+		visitTypeInsn(NEW, StringCompatDumper.CLASS_NAME);
+		visitInsn(DUP);
+		StringConcatRecipe.pushInt(mv, args.length);
+		visitMethodInsn(INVOKESPECIAL, StringCompatDumper.CLASS_NAME, "<init>", "(I)V", false);
+		// Visit each arg type in reverse order
+		for (int i = args.length - 1; i >= 0; i--) {
+			Type arg = args[i];
+			if (arg.getSize() == 1) {
+				// Make sure the argument is on top of the stack with a simple swap
+				visitInsn(SWAP);
+			} else {
+				// Long/double require some more to reorder things.
+				// - Insert a copy of the concat below the long/double
+				// - Delete the top copy
+				visitInsn(DUP_X2);
+				visitInsn(POP);
+			}
+			String compatType = getCompatType(arg);
+			visitMethodInsn(INVOKEVIRTUAL, StringCompatDumper.CLASS_NAME, "insert", "(" + compatType + ")" + StringCompatDumper.CLASS_DESCRIPTOR, false);
+		}
+		// Pass the constants the recipe refers to, already converted to strings
+		for (int i = 1; i < bsmArgs.length; i++) {
+			visitLdcInsn(String.valueOf(bsmArgs[i]));
+			visitMethodInsn(INVOKEVIRTUAL, StringCompatDumper.CLASS_NAME, "constant", "(Ljava/lang/String;)" + StringCompatDumper.CLASS_DESCRIPTOR, false);
+		}
+		// Visit the pattern string and print the value
+		visitLdcInsn(bsmArgs[0]);
+		visitMethodInsn(INVOKEVIRTUAL, StringCompatDumper.CLASS_NAME, "build", "(Ljava/lang/String;)Ljava/lang/String;", false);
+	}
+
 	@Override
 	public void visitMaxs(int maxStack, int maxLocals) {
-		if (replaced > 0)
-			maxStack += 2;
+		if (replaced > 0) {
+			// Both the builder chain and the compat constructor need at most 3 more slots
+			maxStack += 3;
+			maxLocals = Math.max(maxLocals, firstFreeLocal + spillSize);
+		}
 		super.visitMaxs(maxStack, maxLocals);
 	}
 
@@ -74,20 +150,11 @@ public class StringIndyRewriter extends MethodVisitor implements Opcodes {
 	 * @return Compatible type for any variant of {@link StringCompat#insert(Object)}.
 	 */
 	private static String getCompatType(Type type) {
-		if (type.getSort() == Type.ARRAY) {
-			Type element = type.getElementType();
-			if (type.getDimensions() > 1 || element.getSort() >= Type.ARRAY) {
-				// Non-primitive array
-				return "[Ljava/lang/Object;";
-			} else {
-				// Primitive array
-				return element.getDescriptor();
-			}
-		} else if (type.getSort() < Type.ARRAY) {
+		if (type.getSort() < Type.ARRAY) {
 			// Primitive
 			return type.getDescriptor();
 		}
-		// Object
+		// Objects and arrays, which are rendered with String.valueOf like the indy concatenation does
 		return "Ljava/lang/Object;";
 	}
 }
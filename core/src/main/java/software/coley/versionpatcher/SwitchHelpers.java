@@ -0,0 +1,360 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic {@code typeSwitch$N} and {@code enumSwitch$N} methods of a class, replacing {@code SwitchBootstraps} call sites.
+ * Like the bootstraps, each takes the selector and the label index to restart from, and returns the index of the first
+ * matching label at or after it, {@code -1} for {@code null}, or the label count when no label matches.
+ * <ul>
+ *     <li>Type switches check each label in turn, with {@code instanceof} for classes and {@code equals} for constants.</li>
+ *     <li>Enum switches look up the ordinal of the selector in a mapping array, as javac does for classic enum switches.
+ *     The arrays are built when the synthetic {@code Owner$$SwitchMap} class is first initialized, so they are built
+ *     lazily and safely published. Restarts, which only happen after a guard fails, compare constant names in turn.</li>
+ * </ul>
+ * Helpers are numbered in the order their call sites are first seen, so the output is stable for the same input.
+ *
+ * @author Matt Coley
+ */
+public class SwitchHelpers implements Opcodes {
+	private static final String BOOTSTRAP_OWNER = "java/lang/runtime/SwitchBootstraps";
+	private static final String TYPE_SWITCH = "typeSwitch";
+	private static final String ENUM_SWITCH = "enumSwitch";
+	private static final String MAP_CLASS_SUFFIX = "$$SwitchMap";
+	private static final String MAP_FIELD_PREFIX = "map$";
+	private final Map<List<Object>, Helper> helpers = new LinkedHashMap<>();
+	private final List<Helper> enumHelpers = new ArrayList<>();
+	private final String owner;
+	private final boolean isInterface;
+	private final int classVersion;
+	private byte[] mapClass;
+
+	/**
+	 * @param owner
+	 * 		Internal name of the class the helpers are added to.
+	 * @param isInterface
+	 * 		Whether the class is an interface.
+	 * @param classVersion
+	 * 		Class file version of the patched class, also used for the generated mapping class.
+	 */
+	public SwitchHelpers(String owner, boolean isInterface, int classVersion) {
+		this.owner = owner;
+		this.isInterface = isInterface;
+		this.classVersion = classVersion;
+	}
+
+	/**
+	 * @param bsmHandle
+	 * 		Bootstrap method handle of an invoke-dynamic instruction.
+	 *
+	 * @return {@code true} when the handle is {@code SwitchBootstraps.typeSwitch} or {@code enumSwitch}.
+	 */
+	public static boolean isSwitchBootstrap(Handle bsmHandle) {
+		return BOOTSTRAP_OWNER.equals(bsmHandle.getOwner()) &&
+				(TYPE_SWITCH.equals(bsmHandle.getName()) || ENUM_SWITCH.equals(bsmHandle.getName()));
+	}
+
+	/**
+	 * @param descriptor
+	 * 		Descriptor of the invoke-dynamic instruction.
+	 * @param bsmHandle
+	 * 		Bootstrap method handle of the instruction.
+	 * @param bsmArgs
+	 * 		Bootstrap arguments of the instruction, which are the case labels.
+	 *
+	 * @return {@code true} when the call site can be replaced by a helper.
+	 * Labels of enum constants of other types, given as dynamic constants, are not supported.
+	 */
+	public boolean canLower(String descriptor, Handle bsmHandle, Object[] bsmArgs) {
+		if (!isSwitchBootstrap(bsmHandle))
+			return false;
+		// Interfaces cannot have static methods before Java 8
+		if (isInterface && classVersion < V1_8)
+			return false;
+		Type selector = Type.getArgumentTypes(descriptor)[0];
+		if (selector.getSort() != Type.OBJECT && selector.getSort() != Type.ARRAY)
+			return false;
+		boolean enumSwitch = ENUM_SWITCH.equals(bsmHandle.getName());
+		for (Object label : bsmArgs) {
+			if (enumSwitch) {
+				// Type labels of enum switches are always the enum itself, matching any constant
+				if (!(label instanceof String) && !selector.equals(label))
+					return false;
+			} else if (!(label instanceof Type) && !(label instanceof String) && !(label instanceof Integer)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param mv
+	 * 		Method to emit into.
+	 * @param bootstrapName
+	 * 		Name of the bootstrap method, {@code typeSwitch} or {@code enumSwitch}.
+	 * @param descriptor
+	 * 		Descriptor of the invoke-dynamic instruction, with the selector and restart index on the stack.
+	 * @param bsmArgs
+	 * 		Bootstrap arguments of the instruction, which are the case labels.
+	 */
+	public void emitCall(MethodVisitor mv, String bootstrapName, String descriptor, Object[] bsmArgs) {
+		List<Object> key = Arrays.asList(bootstrapName, descriptor, Arrays.asList(bsmArgs));
+		Helper helper = helpers.get(key);
+		if (helper == null) {
+			helper = new Helper(bootstrapName + "$" + helpers.size(), ENUM_SWITCH.equals(bootstrapName), descriptor, bsmArgs);
+			helpers.put(key, helper);
+			if (helper.enumSwitch)
+				enumHelpers.add(helper);
+		}
+		mv.visitMethodInsn(INVOKESTATIC, owner, helper.name, descriptor, isInterface);
+	}
+
+	/**
+	 * @return Generated mapping class by internal name, once {@link #visitHelpers(ClassVisitor) helpers are added},
+	 * if any enum switches were replaced.
+	 */
+	public Map<String, byte[]> getGeneratedClasses() {
+		if (mapClass == null)
+			return Collections.emptyMap();
+		return Collections.singletonMap(owner + MAP_CLASS_SUFFIX, mapClass);
+	}
+
+	/**
+	 * Adds the helpers used so far to the class, and generates the mapping class for enum switches.
+	 *
+	 * @param cv
+	 * 		Class to add to.
+	 */
+	public void visitHelpers(ClassVisitor cv) {
+		// Interfaces cannot have private methods before Java 9
+		int access = (isInterface ? ACC_PUBLIC : ACC_PRIVATE) | ACC_STATIC | ACC_SYNTHETIC;
+		for (Helper helper : helpers.values()) {
+			MethodVisitor mv = cv.visitMethod(access, helper.name, helper.descriptor, null, null);
+			mv.visitCode();
+			if (helper.enumSwitch)
+				visitEnumSwitch(mv, helper);
+			else
+				visitTypeSwitch(mv, helper);
+			mv.visitMaxs(2, 2);
+			mv.visitEnd();
+		}
+		if (!enumHelpers.isEmpty())
+			mapClass = generateMapClass();
+	}
+
+	private void visitTypeSwitch(MethodVisitor mv, Helper helper) {
+		visitNullCheck(mv, helper);
+		Object[] labels = helper.labels;
+		for (int i = 0; i < labels.length; i++) {
+			Label next = new Label();
+			visitRestartCheck(mv, i, next);
+			Object label = labels[i];
+			if (label instanceof Type) {
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(INSTANCEOF, ((Type) label).getInternalName());
+				mv.visitJumpInsn(IFEQ, next);
+			} else if (label instanceof String) {
+				mv.visitLdcInsn(label);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
+				mv.visitJumpInsn(IFEQ, next);
+			} else {
+				// Integer labels match numbers by their int value, and characters by their code
+				Label character = new Label();
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(INSTANCEOF, "java/lang/Number");
+				mv.visitJumpInsn(IFEQ, character);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(CHECKCAST, "java/lang/Number");
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number", "intValue", "()I", false);
+				pushInt(mv, (Integer) label);
+				mv.visitJumpInsn(IF_ICMPNE, next);
+				pushInt(mv, i);
+				mv.visitInsn(IRETURN);
+				mv.visitLabel(character);
+				visitFrame(mv, helper);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(INSTANCEOF, "java/lang/Character");
+				mv.visitJumpInsn(IFEQ, next);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(CHECKCAST, "java/lang/Character");
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Character", "charValue", "()C", false);
+				pushInt(mv, (Integer) label);
+				mv.visitJumpInsn(IF_ICMPNE, next);
+			}
+			pushInt(mv, i);
+			mv.visitInsn(IRETURN);
+			mv.visitLabel(next);
+			visitFrame(mv, helper);
+		}
+		pushInt(mv, labels.length);
+		mv.visitInsn(IRETURN);
+	}
+
+	private void visitEnumSwitch(MethodVisitor mv, Helper helper) {
+		String enumType = helper.selector.getInternalName();
+		visitNullCheck(mv, helper);
+		// Without a restart, the first matching label is found in the mapping array
+		Label restart = new Label();
+		mv.visitVarInsn(ILOAD, 1);
+		mv.visitJumpInsn(IFNE, restart);
+		mv.visitFieldInsn(GETSTATIC, owner + MAP_CLASS_SUFFIX, MAP_FIELD_PREFIX + enumHelpers.indexOf(helper), "[I");
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKEVIRTUAL, enumType, "ordinal", "()I", false);
+		mv.visitInsn(IALOAD);
+		mv.visitInsn(IRETURN);
+		mv.visitLabel(restart);
+		visitFrame(mv, helper);
+		// The first label can never match a restart
+		Object[] labels = helper.labels;
+		for (int i = 1; i < labels.length; i++) {
+			Label next = new Label();
+			visitRestartCheck(mv, i, next);
+			if (labels[i] instanceof String) {
+				mv.visitLdcInsn(labels[i]);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitMethodInsn(INVOKEVIRTUAL, enumType, "name", "()Ljava/lang/String;", false);
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
+				mv.visitJumpInsn(IFEQ, next);
+			}
+			pushInt(mv, i);
+			mv.visitInsn(IRETURN);
+			mv.visitLabel(next);
+			visitFrame(mv, helper);
+		}
+		pushInt(mv, labels.length);
+		mv.visitInsn(IRETURN);
+	}
+
+	private void visitNullCheck(MethodVisitor mv, Helper helper) {
+		Label nonNull = new Label();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitJumpInsn(IFNONNULL, nonNull);
+		mv.visitInsn(ICONST_M1);
+		mv.visitInsn(IRETURN);
+		mv.visitLabel(nonNull);
+		visitFrame(mv, helper);
+	}
+
+	private static void visitRestartCheck(MethodVisitor mv, int index, Label next) {
+		mv.visitVarInsn(ILOAD, 1);
+		if (index == 0) {
+			mv.visitJumpInsn(IFGT, next);
+		} else {
+			pushInt(mv, index);
+			mv.visitJumpInsn(IF_ICMPGT, next);
+		}
+	}
+
+	private void visitFrame(MethodVisitor mv, Helper helper) {
+		if (classVersion >= V1_6)
+			mv.visitFrame(F_NEW, 2, new Object[]{helper.selector.getInternalName(), INTEGER}, 0, null);
+	}
+
+	private byte[] generateMapClass() {
+		String className = owner + MAP_CLASS_SUFFIX;
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(classVersion, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, "java/lang/Object", null);
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		for (int i = 0; i < enumHelpers.size(); i++) {
+			String field = MAP_FIELD_PREFIX + i;
+			cw.visitField(ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, field, "[I", null, null).visitEnd();
+			visitMapInitializer(mv, enumHelpers.get(i));
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(PUTSTATIC, className, field, "[I");
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(3, 1);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private void visitMapInitializer(MethodVisitor mv, Helper helper) {
+		String enumType = helper.selector.getInternalName();
+		Object[] labels = helper.labels;
+		mv.visitMethodInsn(INVOKESTATIC, enumType, "values", "()[" + helper.selector.getDescriptor(), false);
+		mv.visitInsn(ARRAYLENGTH);
+		mv.visitIntInsn(NEWARRAY, T_INT);
+		mv.visitVarInsn(ASTORE, 0);
+		fillMap(mv, labels.length);
+		// Fill in from the last label, so that the first matching label wins
+		for (int i = labels.length - 1; i >= 0; i--) {
+			if (!(labels[i] instanceof String)) {
+				fillMap(mv, i);
+				continue;
+			}
+			// Constants removed since compiling are skipped, as they can never be the selector
+			Label start = new Label();
+			Label end = new Label();
+			Label handler = new Label();
+			Label next = new Label();
+			mv.visitTryCatchBlock(start, end, handler, "java/lang/NoSuchFieldError");
+			mv.visitLabel(start);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETSTATIC, enumType, (String) labels[i], helper.selector.getDescriptor());
+			mv.visitMethodInsn(INVOKEVIRTUAL, enumType, "ordinal", "()I", false);
+			pushInt(mv, i);
+			mv.visitInsn(IASTORE);
+			mv.visitLabel(end);
+			mv.visitJumpInsn(GOTO, next);
+			mv.visitLabel(handler);
+			if (classVersion >= V1_6)
+				mv.visitFrame(F_NEW, 1, new Object[]{"[I"}, 1, new Object[]{"java/lang/NoSuchFieldError"});
+			mv.visitInsn(POP);
+			mv.visitLabel(next);
+			if (classVersion >= V1_6)
+				mv.visitFrame(F_NEW, 1, new Object[]{"[I"}, 0, null);
+		}
+	}
+
+	private static void fillMap(MethodVisitor mv, int value) {
+		mv.visitVarInsn(ALOAD, 0);
+		pushInt(mv, value);
+		mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "fill", "([II)V", false);
+	}
+
+	private static void pushInt(MethodVisitor mv, int value) {
+		if (value >= -1 && value <= 5)
+			mv.visitInsn(ICONST_0 + value);
+		else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+			mv.visitIntInsn(BIPUSH, value);
+		else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+			mv.visitIntInsn(SIPUSH, value);
+		else
+			mv.visitLdcInsn(value);
+	}
+
+	/**
+	 * Helper replacing a unique combination of switch kind, selector type and labels.
+	 */
+	private static class Helper {
+		private final String name;
+		private final boolean enumSwitch;
+		private final String descriptor;
+		private final Type selector;
+		private final Object[] labels;
+
+		private Helper(String name, boolean enumSwitch, String descriptor, Object[] labels) {
+			this.name = name;
+			this.enumSwitch = enumSwitch;
+			this.descriptor = descriptor;
+			this.labels = labels;
+			selector = Type.getArgumentTypes(descriptor)[0];
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package software.coley.versionpatcher;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A method visitor that replaces {@code SwitchBootstraps} call sites of pattern and enum switches with calls to
+ * {@link SwitchHelpers synthetic helpers}, so that they run on versions before Java 21 and do not need to be linked
+ * at runtime.
+ *
+ * @author Matt Coley
+ */
+public class SwitchIndyRewriter extends MethodVisitor implements Opcodes {
+	private final SwitchHelpers switchHelpers;
+	private int replaced;
+
+	/**
+	 * @param mv
+	 * 		Parent method visitor.
+	 * @param switchHelpers
+	 * 		Switch helpers of the declaring class.
+	 */
+	public SwitchIndyRewriter(MethodVisitor mv, SwitchHelpers switchHelpers) {
+		super(Opcodes.ASM9, mv);
+		this.switchHelpers = switchHelpers;
+	}
+
+	/**
+	 * @return Number of replaced switch call sites.
+	 */
+	public int getReplaced() {
+		return replaced;
+	}
+
+	@Override
+	public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsmHandle, Object... bsmArgs) {
+		if (switchHelpers.canLower(descriptor, bsmHandle, bsmArgs)) {
+			switchHelpers.emitCall(mv, bsmHandle.getName(), descriptor, bsmArgs);
+			replaced++;
+		} else {
+			super.visitInvokeDynamicInsn(name, descriptor, bsmHandle, bsmArgs);
+		}
+	}
+}
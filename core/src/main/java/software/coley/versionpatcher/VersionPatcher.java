@@ -1,9 +1,17 @@
 package software.coley.versionpatcher;
 
 import org.objectweb.asm.*;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
 
 /**
  * Patcher visitor that downgrades future-versioned content.
@@ -13,15 +21,77 @@ import java.util.List;
 public class VersionPatcher extends ClassVisitor {
 	private final int targetVersion;
 	private final int classVersion;
+	private final ClassFeatures features;
+	private final MethodIndex methodIndex;
+	private final StringConcatStrategy concatStrategy;
+	private final boolean memoizeRecordHashCode;
+	private final boolean optimizeStartup;
 	// State info
 	private final List<FieldInfo> fields = new ArrayList<>();
+	private final List<String> recordComponents = new ArrayList<>();
+	private final List<IntSupplier> loweredCallSiteCounts = new ArrayList<>();
+	private List<FieldInfo> recordFields;
+	private StringConcatHelpers concatHelpers;
+	private LambdaClasses lambdaClasses;
+	private SwitchHelpers switchHelpers;
+	private ConstantDynamicHolders constantDynamicHolders;
 	private String className;
+	private String simpleClassName;
+	private int classAccess;
+	private int outputVersion;
 	private boolean rewriteRecordMembers;
+	private boolean lowerRecordMethods;
+	private boolean addRecordHashField;
 
 	public VersionPatcher(ClassVisitor parent, int targetVersion) {
+		this(parent, targetVersion, null, null);
+	}
+
+	/**
+	 * @param parent
+	 * 		Parent class visitor.
+	 * @param targetVersion
+	 * 		Java version to target.
+	 * @param features
+	 * 		Pre-scanned features of the class, or {@code null} to assume the class may use any feature.
+	 * 		When provided, rewriters are only applied for features the class actually uses.
+	 * @param methodIndex
+	 * 		Index of the methods that need rewriting, or {@code null} to assume any method may need rewriting.
+	 * 		When provided, methods that do not need rewriting are passed directly to the parent.
+	 */
+	public VersionPatcher(ClassVisitor parent, int targetVersion, ClassFeatures features, MethodIndex methodIndex) {
+		this(parent, createOptions(targetVersion), features, methodIndex);
+	}
+
+	/**
+	 * @param parent
+	 * 		Parent class visitor.
+	 * @param options
+	 * 		Patching configuration.
+	 * @param features
+	 * 		Pre-scanned features of the class, or {@code null} to assume the class may use any feature.
+	 * 		When provided, rewriters are only applied for features the class actually uses.
+	 * @param methodIndex
+	 * 		Index of the methods that need rewriting, or {@code null} to assume any method may need rewriting.
+	 * 		When provided, methods that do not need rewriting are passed directly to the parent.
+	 * 		{@link StringConcatStrategy#INLINE} requires an index, and falls back to {@link StringConcatStrategy#HELPER}
+	 * 		without one.
+	 */
+	public VersionPatcher(ClassVisitor parent, PatchOptions options, ClassFeatures features, MethodIndex methodIndex) {
 		super(Opcodes.ASM9, parent);
-		this.targetVersion = targetVersion;
-		classVersion = 44 + targetVersion;
+		this.targetVersion = options.getTargetVersion();
+		this.features = features;
+		this.methodIndex = methodIndex;
+		this.concatStrategy = options.getEffectiveStringConcatStrategy();
+		this.memoizeRecordHashCode = options.isMemoizeRecordHashCodes();
+		this.optimizeStartup = options.isOptimizeStartup();
+		classVersion = options.getClassVersion();
+	}
+
+	private static PatchOptions createOptions(int targetVersion) {
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(targetVersion);
+		return options;
 	}
 
 	@Override
@@ -29,12 +99,18 @@ public class VersionPatcher extends ClassVisitor {
 		// Modify the version
 		version = Math.min(version, classVersion);
 		// Modify super-type for records (previewed in 14)
-		if (targetVersion < 14 && "java/lang/Record".equals(superName)) {
+		if (targetVersion < 14 && (features == null || features.hasRecordReference()) && "java/lang/Record".equals(superName)) {
 			rewriteRecordMembers = true;
 			superName = "java/lang/Object";
 			access &= ~Opcodes.ACC_RECORD;
+		} else if (optimizeStartup && (features == null || features.hasRecordObjectMethods()) && "java/lang/Record".equals(superName)) {
+			// Records stay records, but their generated methods no longer need to be linked at runtime
+			lowerRecordMethods = true;
 		}
 		className = name;
+		simpleClassName = name.substring(name.lastIndexOf('/') + 1);
+		classAccess = access;
+		outputVersion = version;
 		super.visit(version, access, name, signature, superName, interfaces);
 	}
 
@@ -47,21 +123,168 @@ public class VersionPatcher extends ClassVisitor {
 	@Override
 	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
 		MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
-		// Rewrite record methods
-		if (rewriteRecordMembers) {
-			// Rewrite constructor to point to 'java/lang/Object' super-class when calling parent '<init>'
-			if ("<init>".equals(name))
-				mv = new RecordConstructorRewriter(mv);
-			// Rewrite implementation methods
-			if (RecordMethodImplRewriter.isRecognizedTargetMethod(access, name, descriptor))
-				mv = new RecordMethodImplRewriter(mv, className, fields, name, descriptor);
-		}
-		// Rewrite string concatenation to not use invoke-dynamic
-		if (targetVersion < 9)
-			mv = new StringIndyRewriter(mv);
+		// Rewrite constructor of records to point to 'java/lang/Object' super-class when calling parent '<init>'
+		if (rewriteRecordMembers && "<init>".equals(name))
+			mv = new RecordConstructorRewriter(mv);
+		// Rewrite record implementation methods, unless they were written by hand
+		if ((rewriteRecordMembers || lowerRecordMethods) && RecordMethodImplRewriter.isRecognizedTargetMethod(access, name, descriptor))
+			mv = createRecordMethodBuffer(mv, access, name, descriptor, signature, exceptions);
+		// Rewrite string concatenation to not use invoke-dynamic, or to skip linking it at runtime
+		if ((targetVersion < 9 || optimizeStartup) && hasStringConcat(name, descriptor))
+			mv = createStringIndyRewriter(mv, name, descriptor);
+		// Rewrite lambdas to generated classes, to skip spinning them at runtime
+		if (optimizeStartup && hasLambda(name, descriptor))
+			mv = createLambdaIndyRewriter(mv);
+		// Rewrite pattern and enum switches to not use invoke-dynamic, or to skip linking them at runtime
+		if ((targetVersion < 21 || optimizeStartup) && hasSwitchBootstrap(name, descriptor))
+			mv = createSwitchIndyRewriter(mv);
+		// Rewrite dynamic constants to lazily initialized holder classes
+		if (targetVersion < 11 && hasConstantDynamic(name, descriptor))
+			mv = createConstantDynamicRewriter(mv);
 		return mv;
 	}
 
+	private MethodVisitor createRecordMethodBuffer(MethodVisitor parent, int access, String name, String descriptor,
+												   String signature, String[] exceptions) {
+		// Hand written methods have the same signature as generated ones,
+		// so the body is held until it is known whether it uses the ObjectMethods bootstrap
+		return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+			@Override
+			public void visitEnd() {
+				accept(usesObjectMethods(this) ? createRecordMethodRewriter(parent, name, desc) : parent);
+			}
+		};
+	}
+
+	private MethodVisitor createRecordMethodRewriter(MethodVisitor mv, String name, String descriptor) {
+		// Only downgraded records get the hash field, records are otherwise limited to their component fields
+		String hashField = null;
+		if (rewriteRecordMembers && memoizeRecordHashCode && "hashCode".equals(name) &&
+				RecordMethodImplRewriter.canMemoizeHashCode(getRecordFields())) {
+			hashField = RecordMethodImplRewriter.HASH_FIELD;
+			addRecordHashField = true;
+		}
+		RecordMethodImplRewriter rewriter = new RecordMethodImplRewriter(mv, className, simpleClassName, getRecordFields(),
+				name, descriptor, targetVersion, hashField);
+		loweredCallSiteCounts.add(rewriter::getReplaced);
+		return rewriter;
+	}
+
+	private static boolean usesObjectMethods(MethodNode method) {
+		for (AbstractInsnNode insn : method.instructions)
+			if (insn instanceof InvokeDynamicInsnNode &&
+					"java/lang/runtime/ObjectMethods".equals(((InvokeDynamicInsnNode) insn).bsm.getOwner()))
+				return true;
+		return false;
+	}
+
+	private MethodVisitor createStringIndyRewriter(MethodVisitor mv, String name, String descriptor) {
+		StringConcatStrategy strategy = concatStrategy;
+		int maxLocals = methodIndex == null ? -1 : methodIndex.getMaxLocals(name, descriptor);
+		if (strategy == StringConcatStrategy.INLINE && maxLocals < 0)
+			strategy = StringConcatStrategy.HELPER;
+		// Interfaces cannot have static methods before Java 8
+		boolean isInterface = (classAccess & Opcodes.ACC_INTERFACE) != 0;
+		if (strategy == StringConcatStrategy.HELPER && isInterface && targetVersion < 8)
+			strategy = maxLocals < 0 ? StringConcatStrategy.COMPAT : StringConcatStrategy.INLINE;
+		if (strategy == StringConcatStrategy.HELPER && concatHelpers == null)
+			concatHelpers = new StringConcatHelpers(className, isInterface);
+		StringIndyRewriter rewriter = new StringIndyRewriter(mv, strategy, maxLocals, concatHelpers);
+		loweredCallSiteCounts.add(rewriter::getReplaced);
+		return rewriter;
+	}
+
+	private MethodVisitor createLambdaIndyRewriter(MethodVisitor mv) {
+		if (lambdaClasses == null)
+			lambdaClasses = new LambdaClasses(className, (classAccess & Opcodes.ACC_INTERFACE) != 0, outputVersion);
+		LambdaIndyRewriter rewriter = new LambdaIndyRewriter(mv, lambdaClasses);
+		loweredCallSiteCounts.add(rewriter::getReplaced);
+		return rewriter;
+	}
+
+	private MethodVisitor createSwitchIndyRewriter(MethodVisitor mv) {
+		if (switchHelpers == null)
+			switchHelpers = new SwitchHelpers(className, (classAccess & Opcodes.ACC_INTERFACE) != 0, outputVersion);
+		SwitchIndyRewriter rewriter = new SwitchIndyRewriter(mv, switchHelpers);
+		loweredCallSiteCounts.add(rewriter::getReplaced);
+		return rewriter;
+	}
+
+	private MethodVisitor createConstantDynamicRewriter(MethodVisitor mv) {
+		if (constantDynamicHolders == null)
+			constantDynamicHolders = new ConstantDynamicHolders(className, (classAccess & Opcodes.ACC_INTERFACE) != 0, outputVersion);
+		ConstantDynamicRewriter rewriter = new ConstantDynamicRewriter(mv, constantDynamicHolders);
+		loweredCallSiteCounts.add(rewriter::getReplaced);
+		return rewriter;
+	}
+
+	/**
+	 * @return Number of invoke-dynamic call sites and dynamic constant loads replaced with plain code so far.
+	 */
+	public int getLoweredCallSites() {
+		int count = 0;
+		for (IntSupplier replaced : loweredCallSiteCounts)
+			count += replaced.getAsInt();
+		return count;
+	}
+
+	/**
+	 * @return Classes generated for the patched class so far, by internal name, such as for desugared lambdas,
+	 * enum switch mappings and dynamic constant holders. They are in the same package as the patched class, and must be shipped alongside it.
+	 */
+	public Map<String, byte[]> getGeneratedClasses() {
+		if (lambdaClasses == null && switchHelpers == null && constantDynamicHolders == null)
+			return Collections.emptyMap();
+		Map<String, byte[]> generatedClasses = new LinkedHashMap<>();
+		if (lambdaClasses != null)
+			generatedClasses.putAll(lambdaClasses.getGeneratedClasses());
+		if (switchHelpers != null)
+			generatedClasses.putAll(switchHelpers.getGeneratedClasses());
+		if (constantDynamicHolders != null)
+			generatedClasses.putAll(constantDynamicHolders.getGeneratedClasses());
+		return generatedClasses;
+	}
+
+	/**
+	 * @return Declared fields, with record component fields first in component order.
+	 * This keeps the generated record methods the same regardless of the order the compiler declared fields in.
+	 */
+	private List<FieldInfo> getRecordFields() {
+		// Components and fields are always visited before methods
+		if (recordFields == null) {
+			recordFields = new ArrayList<>(fields);
+			recordFields.sort(Comparator.comparingInt(f -> {
+				int index = recordComponents.indexOf(f.getName());
+				return index < 0 ? Integer.MAX_VALUE : index;
+			}));
+		}
+		return recordFields;
+	}
+
+	private boolean hasStringConcat(String name, String descriptor) {
+		if (features != null && !features.hasStringConcat())
+			return false;
+		return methodIndex == null || methodIndex.hasStringConcat(name, descriptor);
+	}
+
+	private boolean hasLambda(String name, String descriptor) {
+		if (features != null && !features.hasLambdaMetafactory())
+			return false;
+		return methodIndex == null || methodIndex.hasLambda(name, descriptor);
+	}
+
+	private boolean hasSwitchBootstrap(String name, String descriptor) {
+		if (features != null && !features.hasSwitchBootstraps())
+			return false;
+		return methodIndex == null || methodIndex.hasSwitchBootstrap(name, descriptor);
+	}
+
+	private boolean hasConstantDynamic(String name, String descriptor) {
+		if (features != null && !features.hasConstantDynamic())
+			return false;
+		return methodIndex == null || methodIndex.hasConstantDynamic(name, descriptor);
+	}
+
 	@Override
 	public ModuleVisitor visitModule(String name, int access, String version) {
 		if (targetVersion < 9)
@@ -69,6 +292,14 @@ public class VersionPatcher extends ClassVisitor {
 		return super.visitModule(name, access, version);
 	}
 
+	@Override
+	public void visitInnerClass(String name, String outerName, String innerName, int access) {
+		// Nested classes are only named by their own entry, the binary name includes the outer class
+		if (name.equals(className) && innerName != null)
+			simpleClassName = innerName;
+		super.visitInnerClass(name, outerName, innerName, access);
+	}
+
 	@Override
 	public void visitNestHost(String nestHost) {
 		if (targetVersion < 11)
@@ -92,8 +323,25 @@ public class VersionPatcher extends ClassVisitor {
 
 	@Override
 	public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+		recordComponents.add(name);
 		if (targetVersion < 14)
 			return null;
 		return super.visitRecordComponent(name, descriptor, signature);
 	}
+
+	@Override
+	public void visitEnd() {
+		if (concatHelpers != null)
+			concatHelpers.visitHelpers(cv);
+		if (lambdaClasses != null)
+			lambdaClasses.visitAccessors(cv);
+		if (switchHelpers != null)
+			switchHelpers.visitHelpers(cv);
+		if (constantDynamicHolders != null)
+			constantDynamicHolders.visitMethods(cv);
+		if (addRecordHashField)
+			cv.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC,
+					RecordMethodImplRewriter.HASH_FIELD, "I", null, null).visitEnd();
+		super.visitEnd();
+	}
 }
@@ -0,0 +1,438 @@
+package software.coley.versionpatcher;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip reader that gives access to the raw compressed data of entries, so that entries can be copied
+ * into another archive without being inflated and deflated again. See {@link ZipArchiveWriter}.
+ * <br>
+ * The archive is memory-mapped and its central directory parsed once into an index of entries, allowing
+ * entries to be looked up by name. Raw data is handed out as slices of the mapping, so reading it copies nothing.
+ * Archives too large to map at once are mapped per entry instead.
+ * Mappings are released by the garbage collector rather than on {@link #close()}.
+ *
+ * @author Matt Coley
+ */
+public class ZipArchive implements Closeable {
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+	static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	static final int ZIP64_EXTRA_ID = 0x0001;
+	static final int LOCAL_HEADER_LENGTH = 30;
+	static final int CENTRAL_HEADER_LENGTH = 46;
+	static final int END_LENGTH = 22;
+	static final int ZIP64_LOCATOR_LENGTH = 20;
+	static final int ZIP64_MAGIC = 0xFFFF;
+	static final long ZIP64_MAGIC_32 = 0xFFFFFFFFL;
+	private static final int INFLATE_CHUNK = 8 * 1024;
+	/** Compression method of uncompressed entries. */
+	public static final int STORED = 0;
+	/** Compression method of deflated entries. */
+	public static final int DEFLATED = 8;
+	private final FileChannel channel;
+	private final long size;
+	private final ByteBuffer mapping;
+	private final List<Entry> entries;
+	private final Map<String, Entry> index;
+
+	private ZipArchive(FileChannel channel) throws IOException {
+		this.channel = channel;
+		size = channel.size();
+		mapping = size <= Integer.MAX_VALUE ?
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN) : null;
+		entries = Collections.unmodifiableList(readCentralDirectory());
+		index = new HashMap<>(entries.size() * 2);
+		for (Entry entry : entries)
+			index.putIfAbsent(entry.name, entry);
+	}
+
+	/**
+	 * @param path
+	 * 		Zip file to open.
+	 *
+	 * @return Opened archive.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be read, or is not a valid zip file.
+	 */
+	public static ZipArchive open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new ZipArchive(channel);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return Entries in central directory order.
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @param name
+	 * 		Entry path.
+	 *
+	 * @return Entry of the given path, or {@code null} when there is no such entry.
+	 * When there are duplicate entries of the path, the first is returned.
+	 */
+	public Entry getEntry(String name) {
+		return index.get(name);
+	}
+
+	/**
+	 * @param internalName
+	 * 		Internal name of a class, such as {@code java/lang/String}.
+	 *
+	 * @return Content of the class, or {@code null} when the archive has no such class.
+	 *
+	 * @throws IOException
+	 * 		When the class cannot be read.
+	 */
+	public byte[] readClass(String internalName) throws IOException {
+		Entry entry = getEntry(internalName + ".class");
+		return entry == null ? null : read(entry);
+	}
+
+	/**
+	 * @param entry
+	 * 		Entry to read.
+	 *
+	 * @return Read-only view of the compressed data of the entry, exactly as stored in the archive.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be read.
+	 */
+	public ByteBuffer readRaw(Entry entry) throws IOException {
+		ByteBuffer header = slice(entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("Invalid local header: " + entry.name);
+		long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_LENGTH +
+				(header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		return slice(dataOffset, toLength(entry.compressedSize));
+	}
+
+	/**
+	 * @param entry
+	 * 		Entry to read.
+	 *
+	 * @return Uncompressed content of the entry.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be read.
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		ByteBuffer raw = readRaw(entry);
+		byte[] content = new byte[toLength(entry.size)];
+		if (entry.method == STORED) {
+			raw.get(content);
+			return content;
+		}
+		if (entry.method != DEFLATED)
+			throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+		Inflater inflater = new Inflater(true);
+		try {
+			// Feed the inflater in chunks, rather than copying all of the compressed data to the heap at once
+			byte[] chunk = new byte[Math.min(INFLATE_CHUNK, raw.remaining())];
+			int offset = 0;
+			while (offset < content.length) {
+				if (inflater.needsInput()) {
+					if (!raw.hasRemaining())
+						throw new EOFException("Truncated entry: " + entry.name);
+					int length = Math.min(chunk.length, raw.remaining());
+					raw.get(chunk, 0, length);
+					inflater.setInput(chunk, 0, length);
+				}
+				int inflated = inflater.inflate(content, offset, content.length - offset);
+				if (inflated == 0 && inflater.finished())
+					throw new EOFException("Truncated entry: " + entry.name);
+				offset += inflated;
+			}
+		} catch (DataFormatException ex) {
+			throw new ZipException("Invalid compressed data: " + entry.name);
+		} finally {
+			inflater.end();
+		}
+		return content;
+	}
+
+	/**
+	 * @param entry
+	 * 		Entry to read.
+	 *
+	 * @return Stream of the uncompressed content of the entry.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be read.
+	 */
+	public InputStream getInputStream(Entry entry) throws IOException {
+		InputStream raw = new ByteBufferInputStream(readRaw(entry));
+		if (entry.method == STORED)
+			return raw;
+		if (entry.method != DEFLATED)
+			throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+		return new InflaterInputStream(raw, new Inflater(true));
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * @param position
+	 * 		Offset in the archive.
+	 * @param length
+	 * 		Number of bytes.
+	 *
+	 * @return Read-only little-endian view of the given range of the archive.
+	 *
+	 * @throws IOException
+	 * 		When the range is outside the archive, or cannot be mapped.
+	 */
+	private ByteBuffer slice(long position, int length) throws IOException {
+		if (position < 0 || position + length > size)
+			throw new EOFException();
+		if (mapping == null)
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer slice = mapping.duplicate();
+		slice.position((int) position).limit((int) position + length);
+		return slice.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private List<Entry> readCentralDirectory() throws IOException {
+		// The end record is followed by a comment of at most 64k
+		int tailLength = (int) Math.min(size, END_LENGTH + 0xFFFF);
+		long tailPosition = size - tailLength;
+		ByteBuffer tail = slice(tailPosition, tailLength);
+		int end = -1;
+		for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new ZipException("End of central directory not found");
+		long entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC_32;
+		long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC_32;
+		long locatorPosition = tailPosition + end - ZIP64_LOCATOR_LENGTH;
+		if (locatorPosition >= 0 && (entryCount == ZIP64_MAGIC || directorySize == ZIP64_MAGIC_32 ||
+				directoryOffset == ZIP64_MAGIC_32)) {
+			ByteBuffer locator = slice(locatorPosition, ZIP64_LOCATOR_LENGTH);
+			if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+				ByteBuffer zip64End = slice(locator.getLong(8), 56);
+				if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+					throw new ZipException("Invalid zip64 end of central directory");
+				entryCount = zip64End.getLong(32);
+				directorySize = zip64End.getLong(40);
+				directoryOffset = zip64End.getLong(48);
+			}
+		}
+		ByteBuffer directory = slice(directoryOffset, toLength(directorySize));
+		List<Entry> entries = new ArrayList<>((int) Math.min(entryCount, 0xFFFF));
+		int offset = 0;
+		for (long i = 0; i < entryCount; i++) {
+			if (directory.getInt(offset) != CENTRAL_HEADER_SIGNATURE)
+				throw new ZipException("Invalid central directory header");
+			int nameLength = directory.getShort(offset + 28) & 0xFFFF;
+			int extraLength = directory.getShort(offset + 30) & 0xFFFF;
+			int commentLength = directory.getShort(offset + 32) & 0xFFFF;
+			byte[] name = new byte[nameLength];
+			directory.position(offset + CENTRAL_HEADER_LENGTH);
+			directory.get(name);
+			Entry entry = new Entry(new String(name, StandardCharsets.UTF_8),
+					directory.getShort(offset + 8) & 0xFFFF,
+					directory.getShort(offset + 10) & 0xFFFF,
+					directory.getInt(offset + 12),
+					directory.getInt(offset + 16),
+					directory.getInt(offset + 20) & ZIP64_MAGIC_32,
+					directory.getInt(offset + 24) & ZIP64_MAGIC_32,
+					directory.getInt(offset + 42) & ZIP64_MAGIC_32);
+			readZip64Extra(entry, directory, offset + CENTRAL_HEADER_LENGTH + nameLength, extraLength);
+			entries.add(entry);
+			offset += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	private static void readZip64Extra(Entry entry, ByteBuffer directory, int offset, int length) {
+		int end = offset + length;
+		while (offset + 4 <= end) {
+			int id = directory.getShort(offset) & 0xFFFF;
+			int size = directory.getShort(offset + 2) & 0xFFFF;
+			if (id == ZIP64_EXTRA_ID) {
+				// Only the fields that overflowed are present, in this order
+				int field = offset + 4;
+				if (entry.size == ZIP64_MAGIC_32) {
+					entry.size = directory.getLong(field);
+					field += 8;
+				}
+				if (entry.compressedSize == ZIP64_MAGIC_32) {
+					entry.compressedSize = directory.getLong(field);
+					field += 8;
+				}
+				if (entry.localHeaderOffset == ZIP64_MAGIC_32)
+					entry.localHeaderOffset = directory.getLong(field);
+				return;
+			}
+			offset += 4 + size;
+		}
+	}
+
+	private static int toLength(long size) throws ZipException {
+		if (size > Integer.MAX_VALUE - 8)
+			throw new ZipException("Entry too large: " + size);
+		return (int) size;
+	}
+
+	/**
+	 * Stream over the remaining content of a buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Entry of a {@link ZipArchive}, as described by the central directory.
+	 */
+	public static class Entry {
+		private final String name;
+		private final int flags;
+		private final int method;
+		private final int dosTime;
+		private final int crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		Entry(String name, int flags, int method, int dosTime, int crc,
+			  long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		/**
+		 * @return Entry path.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return {@code true} when the entry is a directory.
+		 */
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		/**
+		 * @return General purpose flags.
+		 */
+		public int getFlags() {
+			return flags;
+		}
+
+		/**
+		 * @return Compression method, such as {@link #STORED} or {@link #DEFLATED}.
+		 */
+		public int getMethod() {
+			return method;
+		}
+
+		/**
+		 * @return Last modification time, in MS-DOS format with the time in the low and the date in the high bits.
+		 */
+		public int getDosTime() {
+			return dosTime;
+		}
+
+		/**
+		 * @return CRC-32 of the uncompressed content.
+		 */
+		public int getCrc() {
+			return crc;
+		}
+
+		/**
+		 * @return Size of the compressed data.
+		 */
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * @return Size of the uncompressed content.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return Offset of the local header of the entry in the archive.
+		 */
+		long getLocalHeaderOffset() {
+			return localHeaderOffset;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
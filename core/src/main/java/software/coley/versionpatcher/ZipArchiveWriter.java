@@ -0,0 +1,303 @@
+package software.coley.versionpatcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static software.coley.versionpatcher.ZipArchive.*;
+
+/**
+ * Minimal zip writer that can copy the raw compressed data of entries from a {@link ZipArchive},
+ * so that only entries with new content need to be compressed.
+ *
+ * @author Matt Coley
+ */
+public class ZipArchiveWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int UTF8_FLAG = 0x0800;
+	private static final int VERSION = 20;
+	private static final int ZIP64_VERSION = 45;
+	// Deflaters hold native memory, so reuse one per thread rather than one per entry
+	private static final ThreadLocal<Deflater> DEFLATER =
+			ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final List<Entry> entries = new ArrayList<>();
+	private long position;
+
+	/**
+	 * @param path
+	 * 		Zip file to create or replace.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be opened.
+	 */
+	public ZipArchiveWriter(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Copies an entry without decompressing it.
+	 *
+	 * @param entry
+	 * 		Entry to copy.
+	 * @param data
+	 * 		Compressed data of the entry, from {@link ZipArchive#readRaw(Entry)}.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be written.
+	 */
+	public void writeRaw(Entry entry, ByteBuffer data) throws IOException {
+		writeRaw(entry, entry.getDosTime(), data);
+	}
+
+	/**
+	 * Copies an entry without decompressing it, with a new modification time.
+	 *
+	 * @param entry
+	 * 		Entry to copy.
+	 * @param dosTime
+	 * 		Last modification time, in MS-DOS format. See {@link Entry#getDosTime()}.
+	 * @param data
+	 * 		Compressed data of the entry, from {@link ZipArchive#readRaw(Entry)}.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be written.
+	 */
+	public void writeRaw(Entry entry, int dosTime, ByteBuffer data) throws IOException {
+		// Sizes are always known up front, so no data descriptor follows the data
+		int flags = entry.getFlags() & ~0x0008;
+		writeEntry(entry.getName(), flags, entry.getMethod(), dosTime, entry.getCrc(),
+				entry.getCompressedSize(), entry.getSize(), data);
+	}
+
+	/**
+	 * Writes an entry with new content, compressing it on the calling thread.
+	 *
+	 * @param name
+	 * 		Entry path.
+	 * @param dosTime
+	 * 		Last modification time, in MS-DOS format. See {@link Entry#getDosTime()}.
+	 * @param content
+	 * 		Uncompressed content.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be written.
+	 */
+	public void write(String name, int dosTime, byte[] content) throws IOException {
+		write(compress(name, dosTime, content));
+	}
+
+	/**
+	 * Writes an entry compressed ahead of time, see {@link #compress(String, int, byte[])}.
+	 *
+	 * @param entry
+	 * 		Compressed entry.
+	 *
+	 * @throws IOException
+	 * 		When the entry cannot be written.
+	 */
+	public void write(CompressedEntry entry) throws IOException {
+		writeRaw(entry.entry, entry.data);
+	}
+
+	/**
+	 * Compresses an entry independently of any writer, so that entries can be compressed in parallel
+	 * and then {@link #write(CompressedEntry) written} in order.
+	 *
+	 * @param name
+	 * 		Entry path.
+	 * @param dosTime
+	 * 		Last modification time, in MS-DOS format. See {@link Entry#getDosTime()}.
+	 * @param content
+	 * 		Uncompressed content.
+	 *
+	 * @return Compressed entry.
+	 */
+	public static CompressedEntry compress(String name, int dosTime, byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		deflater.setInput(content);
+		deflater.finish();
+		// Deflated data of incompressible content may be slightly larger than the content
+		byte[] compressed = new byte[content.length + content.length / 1000 + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		Entry entry = new Entry(name, UTF8_FLAG, DEFLATED, dosTime, (int) crc.getValue(), length, content.length, -1);
+		return new CompressedEntry(entry, ByteBuffer.wrap(compressed, 0, length));
+	}
+
+	/**
+	 * @param millis
+	 * 		Time in milliseconds since the epoch.
+	 *
+	 * @return Time in MS-DOS format. The UTC date and time are used, so the result does not depend on the
+	 * time zone of the machine.
+	 */
+	public static int toDosTime(long millis) {
+		LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), 0, ZoneOffset.UTC);
+		if (time.getYear() < 1980)
+			time = LocalDateTime.of(1980, 1, 1, 0, 0);
+		return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+				time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+	}
+
+	private void writeEntry(String name, int flags, int method, int dosTime, int crc,
+							long compressedSize, long size, ByteBuffer data) throws IOException {
+		if (compressedSize >= ZIP64_MAGIC_32 || size >= ZIP64_MAGIC_32)
+			throw new IOException("Entries of 4 GB or more are not supported: " + name);
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		entries.add(new Entry(name, flags, method, dosTime, crc, compressedSize, size, position));
+		ensureCapacity(LOCAL_HEADER_LENGTH + nameBytes.length);
+		buffer.putInt(LOCAL_HEADER_SIGNATURE);
+		buffer.putShort((short) VERSION);
+		buffer.putShort((short) flags);
+		buffer.putShort((short) method);
+		buffer.putInt(dosTime);
+		buffer.putInt(crc);
+		buffer.putInt((int) compressedSize);
+		buffer.putInt((int) size);
+		buffer.putShort((short) nameBytes.length);
+		buffer.putShort((short) 0);
+		buffer.put(nameBytes);
+		position += LOCAL_HEADER_LENGTH + nameBytes.length;
+		writeData(data);
+	}
+
+	private void writeData(ByteBuffer data) throws IOException {
+		data = data.duplicate();
+		position += data.remaining();
+		if (data.remaining() <= buffer.remaining()) {
+			buffer.put(data);
+			return;
+		}
+		// Large data is written directly rather than through the buffer
+		flush();
+		while (data.hasRemaining())
+			channel.write(data);
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+		if (buffer.remaining() < length)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writeCentralDirectory();
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long directoryOffset = position;
+		for (Entry entry : entries) {
+			byte[] nameBytes = entry.getName().getBytes(StandardCharsets.UTF_8);
+			boolean zip64 = entry.getLocalHeaderOffset() >= ZIP64_MAGIC_32;
+			int extraLength = zip64 ? 12 : 0;
+			ensureCapacity(CENTRAL_HEADER_LENGTH + nameBytes.length + extraLength);
+			buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+			buffer.putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+			buffer.putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+			buffer.putShort((short) entry.getFlags());
+			buffer.putShort((short) entry.getMethod());
+			buffer.putInt(entry.getDosTime());
+			buffer.putInt(entry.getCrc());
+			buffer.putInt((int) entry.getCompressedSize());
+			buffer.putInt((int) entry.getSize());
+			buffer.putShort((short) nameBytes.length);
+			buffer.putShort((short) extraLength);
+			buffer.putShort((short) 0); // Comment length
+			buffer.putShort((short) 0); // Disk number
+			buffer.putShort((short) 0); // Internal attributes
+			buffer.putInt(0); // External attributes
+			buffer.putInt(zip64 ? (int) ZIP64_MAGIC_32 : (int) entry.getLocalHeaderOffset());
+			buffer.put(nameBytes);
+			if (zip64) {
+				buffer.putShort((short) ZIP64_EXTRA_ID);
+				buffer.putShort((short) 8);
+				buffer.putLong(entry.getLocalHeaderOffset());
+			}
+			position += CENTRAL_HEADER_LENGTH + nameBytes.length + extraLength;
+		}
+		long directorySize = position - directoryOffset;
+		int entryCount = entries.size();
+		ensureCapacity(56 + ZIP64_LOCATOR_LENGTH + END_LENGTH);
+		if (entryCount >= ZIP64_MAGIC || directoryOffset >= ZIP64_MAGIC_32) {
+			long zip64EndOffset = position;
+			buffer.putInt(ZIP64_END_SIGNATURE);
+			buffer.putLong(44); // Size of the remaining record
+			buffer.putShort((short) ZIP64_VERSION);
+			buffer.putShort((short) ZIP64_VERSION);
+			buffer.putInt(0); // Disk number
+			buffer.putInt(0); // Disk with the central directory
+			buffer.putLong(entryCount);
+			buffer.putLong(entryCount);
+			buffer.putLong(directorySize);
+			buffer.putLong(directoryOffset);
+			buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+			buffer.putInt(0); // Disk with the zip64 end record
+			buffer.putLong(zip64EndOffset);
+			buffer.putInt(1); // Total disks
+			position += 56 + ZIP64_LOCATOR_LENGTH;
+		}
+		buffer.putInt(END_SIGNATURE);
+		buffer.putShort((short) 0); // Disk number
+		buffer.putShort((short) 0); // Disk with the central directory
+		buffer.putShort((short) Math.min(entryCount, ZIP64_MAGIC));
+		buffer.putShort((short) Math.min(entryCount, ZIP64_MAGIC));
+		buffer.putInt((int) Math.min(directorySize, ZIP64_MAGIC_32));
+		buffer.putInt((int) Math.min(directoryOffset, ZIP64_MAGIC_32));
+		buffer.putShort((short) 0); // Comment length
+		position += END_LENGTH;
+	}
+
+	/**
+	 * Entry compressed ahead of writing.
+	 */
+	public static class CompressedEntry {
+		private final Entry entry;
+		private final ByteBuffer data;
+
+		private CompressedEntry(Entry entry, ByteBuffer data) {
+			this.entry = entry;
+			this.data = data;
+		}
+
+		/**
+		 * @return Entry metadata.
+		 */
+		public Entry getEntry() {
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,379 @@
+package software.coley.versionpatcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ZipArchive}, {@link JarPatcher}, {@link ArtifactCache} and {@link ArtifactMemoryCache}.
+ */
+public class ArtifactCacheTests {
+	@Test
+	public void patchedJarsAreCached(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		ArtifactCache cache = new ArtifactCache(temp.resolve("cache"), Long.MAX_VALUE);
+		PatchOptions options = new PatchOptions();
+		AtomicInteger patchCount = new AtomicInteger();
+		try (PatchEngine engine = new PatchEngine(options)) {
+			JarPatcher patcher = new JarPatcher(engine);
+			String key = ArtifactCache.key(jar, options);
+			assertNull(cache.get(key));
+			for (int i = 0; i < 2; i++) {
+				Path patched = cache.computeIfAbsent(key, output -> {
+					patchCount.incrementAndGet();
+					PatchReport report = patcher.patch(jar, output, (source, ex) -> fail(source.getName(), ex));
+					assertEquals(0, report.getFailed());
+				});
+				assertEquals(patched, cache.get(key));
+				try (ZipFile zipFile = new ZipFile(patched.toFile())) {
+					assertEquals("text", new String(readEntry(zipFile, "resource.txt")));
+					assertEquals(Opcodes.V1_8, ClassHeader.getMajorVersion(readEntry(zipFile, "Day.class")));
+				}
+			}
+			assertEquals(1, patchCount.get());
+
+			// Different options yield a different key
+			options.setTargetVersion(11);
+			assertNotEquals(key, ArtifactCache.key(jar, options));
+		}
+	}
+
+	@Test
+	public void jarIsPatchedWithinMemoryBudget(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		Path output = temp.resolve("output.jar");
+		PatchOptions options = new PatchOptions();
+		options.setParallelism(4);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			// A budget smaller than any class only allows one class in flight at a time
+			PatchReport report = new JarPatcher(engine, 1).patch(jar, output, (source, ex) -> fail(source.getName(), ex));
+			assertEquals(0, report.getFailed());
+		}
+		try (ZipFile in = new ZipFile(jar.toFile()); ZipFile out = new ZipFile(output.toFile())) {
+			List<String> inputNames = in.stream().map(ZipEntry::getName).collect(Collectors.toList());
+			List<String> outputNames = out.stream().map(ZipEntry::getName).collect(Collectors.toList());
+			assertEquals(inputNames, outputNames);
+			for (String name : outputNames)
+				if (name.endsWith(".class"))
+					assertTrue(ClassHeader.getMajorVersion(readEntry(out, name)) <= Opcodes.V1_8, name);
+		}
+		assertStreamable(output);
+	}
+
+	@Test
+	public void parallelOutputIsDeterministic(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		Path first = temp.resolve("first.jar");
+		Path second = temp.resolve("second.jar");
+		PatchOptions options = new PatchOptions();
+		options.setParallelism(4);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			JarPatcher patcher = new JarPatcher(engine);
+			patcher.patch(jar, first, (source, ex) -> fail(source.getName(), ex));
+			patcher.patch(jar, second, (source, ex) -> fail(source.getName(), ex));
+		}
+		assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+		assertStreamable(first);
+	}
+
+	@Test
+	public void reproducibleOutputIgnoresEntryOrderAndTime(@TempDir Path temp) throws IOException {
+		Path firstInput = createJar(Files.createDirectory(temp.resolve("a")));
+		Path secondInput = temp.resolve("b.jar");
+		// Same content, in reverse order with different timestamps
+		try (ZipFile in = new ZipFile(firstInput.toFile());
+			 ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(secondInput))) {
+			List<ZipEntry> entries = in.stream().collect(Collectors.toList());
+			Collections.reverse(entries);
+			for (ZipEntry entry : entries) {
+				ZipEntry copy = new ZipEntry(entry.getName());
+				copy.setTime(System.currentTimeMillis() - 86_400_000L);
+				zos.putNextEntry(copy);
+				zos.write(readEntry(in, entry.getName()));
+				zos.closeEntry();
+			}
+			zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			zos.write("Manifest-Version: 1.0\r\n".getBytes());
+			zos.closeEntry();
+		}
+		// Add the same manifest to the first input, at the end
+		Path firstWithManifest = temp.resolve("a.jar");
+		try (ZipFile in = new ZipFile(firstInput.toFile());
+			 ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(firstWithManifest))) {
+			for (ZipEntry entry : Collections.list(in.entries())) {
+				zos.putNextEntry(new ZipEntry(entry.getName()));
+				zos.write(readEntry(in, entry.getName()));
+				zos.closeEntry();
+			}
+			zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			zos.write("Manifest-Version: 1.0\r\n".getBytes());
+			zos.closeEntry();
+		}
+		Path first = temp.resolve("first.jar");
+		Path second = temp.resolve("second.jar");
+		PatchOptions options = new PatchOptions();
+		options.setParallelism(4);
+		options.setReproducible(true);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			JarPatcher patcher = new JarPatcher(engine);
+			patcher.patch(firstWithManifest, first, (source, ex) -> fail(source.getName(), ex));
+			patcher.patch(secondInput, second, (source, ex) -> fail(source.getName(), ex));
+		}
+		assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+		try (ZipArchive archive = ZipArchive.open(first)) {
+			List<ZipArchive.Entry> entries = archive.getEntries();
+			assertEquals("META-INF/MANIFEST.MF", entries.get(0).getName());
+			int dosTime = ZipArchiveWriter.toDosTime(PatchOptions.DEFAULT_OUTPUT_TIMESTAMP);
+			for (int i = 0; i < entries.size(); i++) {
+				assertEquals(dosTime, entries.get(i).getDosTime());
+				if (i > 1)
+					assertTrue(entries.get(i - 1).getName().compareTo(entries.get(i).getName()) < 0);
+			}
+		}
+		assertStreamable(first);
+	}
+
+	@Test
+	public void failureHandlerErrorsStopWriting(@TempDir Path temp) throws IOException {
+		Path jar = temp.resolve("input.jar");
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+			zos.putNextEntry(new ZipEntry("Invalid.class"));
+			zos.write(new byte[]{1, 2, 3});
+			zos.closeEntry();
+		}
+		PatchOptions options = new PatchOptions();
+		options.setParallelism(1);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			// Without a pool the handler is called on the reader thread
+			JarPatcher patcher = new JarPatcher(engine);
+			assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(LinkageError.class,
+					() -> patcher.patch(jar, temp.resolve("output.jar"), (source, ex) -> {
+						throw new LinkageError(source.getName());
+					})));
+		}
+	}
+
+	@Test
+	public void untouchedEntriesAreCopiedRaw(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		Path output = temp.resolve("output.jar");
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(16);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			// Nothing needs patching for Java 16, so all entries should be copied without recompressing
+			PatchReport report = new JarPatcher(engine).patch(jar, output, (source, ex) -> fail(source.getName(), ex));
+			assertEquals(0, report.getPatched() + report.getVersionOnly());
+		}
+		try (ZipArchive in = ZipArchive.open(jar); ZipArchive out = ZipArchive.open(output)) {
+			assertEquals(in.getEntries().size(), out.getEntries().size());
+			for (int i = 0; i < in.getEntries().size(); i++) {
+				ZipArchive.Entry inEntry = in.getEntries().get(i);
+				ZipArchive.Entry outEntry = out.getEntries().get(i);
+				assertEquals(inEntry.getName(), outEntry.getName());
+				assertEquals(inEntry.getCrc(), outEntry.getCrc());
+				assertEquals(in.readRaw(inEntry), out.readRaw(outEntry), inEntry.getName());
+			}
+		}
+		assertStreamable(output);
+	}
+
+	@Test
+	public void entriesCanBeLookedUpByName(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		try (ZipArchive archive = ZipArchive.open(jar); ZipFile zipFile = new ZipFile(jar.toFile())) {
+			assertEquals(zipFile.size(), archive.getEntries().size());
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				assertSame(entry, archive.getEntry(entry.getName()));
+				assertArrayEquals(readEntry(zipFile, entry.getName()), archive.read(entry), entry.getName());
+			}
+			assertArrayEquals(readEntry(zipFile, "Day.class"), archive.readClass("Day"));
+			assertNull(archive.getEntry("Missing.class"));
+			assertNull(archive.readClass("Missing"));
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedEntriesAreEvicted(@TempDir Path temp) throws IOException {
+		ArtifactCache cache = new ArtifactCache(temp, 20);
+		Path first = cache.computeIfAbsent("first", path -> Files.write(path, new byte[10]));
+		Path second = cache.computeIfAbsent("second", path -> Files.write(path, new byte[10]));
+		Files.setLastModifiedTime(first, FileTime.fromMillis(1000));
+		Files.setLastModifiedTime(second, FileTime.fromMillis(2000));
+		// Using the first entry makes the second the least recently used
+		assertNotNull(cache.get("first"));
+		cache.computeIfAbsent("third", path -> Files.write(path, new byte[10]));
+		assertNotNull(cache.get("first"));
+		assertNull(cache.get("second"));
+		assertNotNull(cache.get("third"));
+	}
+
+	@Test
+	public void returnedEntryIsNeverEvicted(@TempDir Path temp) throws IOException {
+		Path jar = createJar(temp);
+		// A limit smaller than any single entry
+		ArtifactCache cache = new ArtifactCache(temp.resolve("cache"), 1);
+		assertNotNull(cache.computeIfAbsent("other", path -> Files.write(path, new byte[10])));
+		PatchOptions options = new PatchOptions();
+		try (PatchEngine engine = new PatchEngine(options)) {
+			String key = ArtifactCache.key(jar, options);
+			Path patched = cache.computeIfAbsent(key, output ->
+					new JarPatcher(engine).patch(jar, output, (source, ex) -> fail(source.getName(), ex)));
+			// Older entries make room, but the returned one stays readable
+			try (ZipArchive archive = ZipArchive.open(patched)) {
+				assertNotNull(archive.getEntry("Day.class"));
+			}
+			assertEquals(patched, cache.get(key));
+			assertNull(cache.get("other"));
+		}
+	}
+
+	@Test
+	public void concurrentRequestsShareOneLoad() throws Exception {
+		ArtifactMemoryCache cache = new ArtifactMemoryCache(1024);
+		AtomicInteger loadCount = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Map<String, byte[]>>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(() -> cache.get("key", () -> {
+					loadCount.incrementAndGet();
+					loading.countDown();
+					try {
+						assertTrue(release.await(10, TimeUnit.SECONDS));
+					} catch (InterruptedException ex) {
+						throw new IOException(ex);
+					}
+					return Collections.singletonMap("A.class", new byte[10]);
+				})));
+			}
+			assertTrue(loading.await(10, TimeUnit.SECONDS));
+			release.countDown();
+			Map<String, byte[]> first = futures.get(0).get();
+			for (Future<Map<String, byte[]>> future : futures)
+				assertSame(first, future.get());
+			assertEquals(1, loadCount.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void loaderErrorsReleaseWaitingRequests() throws Exception {
+		ArtifactMemoryCache cache = new ArtifactMemoryCache(1024);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			ArtifactMemoryCache.Loader failing = () -> {
+				loading.countDown();
+				try {
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException ex) {
+					throw new IOException(ex);
+				}
+				throw new LinkageError("Broken loader");
+			};
+			Future<Map<String, byte[]>> first = executor.submit(() -> cache.get("key", failing));
+			assertTrue(loading.await(10, TimeUnit.SECONDS));
+			Future<Map<String, byte[]>> second = executor.submit(() -> cache.get("key", failing));
+			// Give the second request time to start waiting on the first
+			Thread.sleep(100);
+			release.countDown();
+			ExecutionException firstFailure = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+			assertTrue(firstFailure.getCause() instanceof LinkageError);
+			ExecutionException secondFailure = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+			assertTrue(secondFailure.getCause() instanceof IOException);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void memoryCacheIsBounded() throws IOException {
+		ArtifactMemoryCache cache = new ArtifactMemoryCache(20);
+		AtomicInteger loadCount = new AtomicInteger();
+		ArtifactMemoryCache.Loader loader = () -> {
+			loadCount.incrementAndGet();
+			return Collections.singletonMap("A.class", new byte[10]);
+		};
+		cache.get("first", loader);
+		cache.get("second", loader);
+		cache.get("first", loader);
+		assertEquals(2, loadCount.get());
+		// Exceeding the budget drops the least recently used, which is now the second
+		cache.get("third", loader);
+		cache.get("first", loader);
+		assertEquals(3, loadCount.get());
+		cache.get("second", loader);
+		assertEquals(4, loadCount.get());
+	}
+
+	private static Path createJar(Path temp) throws IOException {
+		Path jar = temp.resolve("input.jar");
+		List<ClassSource> classes = PatchEngineTests.copyClasses(Files.createDirectory(temp.resolve("classes")));
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+			zos.putNextEntry(new ZipEntry("resource.txt"));
+			zos.write("text".getBytes());
+			zos.closeEntry();
+			for (ClassSource source : classes) {
+				zos.putNextEntry(new ZipEntry(source.getName()));
+				zos.write(source.read());
+				zos.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	/**
+	 * The standard streaming reader validates the sizes and CRCs of entries as it reads them.
+	 */
+	private static void assertStreamable(Path jar) throws IOException {
+		try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(jar))) {
+			byte[] buffer = new byte[1024];
+			while (zis.getNextEntry() != null) {
+				while (zis.read(buffer) != -1) {
+					// Read to the end to validate the entry
+				}
+			}
+		}
+	}
+
+	private static byte[] readEntry(ZipFile zipFile, String name) throws IOException {
+		ZipEntry entry = zipFile.getEntry(name);
+		assertNotNull(entry, name);
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			byte[] data = new byte[(int) entry.getSize()];
+			int offset = 0;
+			while (offset < data.length)
+				offset += in.read(data, offset, data.length - offset);
+			return data;
+		}
+	}
+}
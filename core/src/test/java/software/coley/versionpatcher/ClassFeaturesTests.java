@@ -0,0 +1,64 @@
+package software.coley.versionpatcher;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the features reported by {@link ClassFeatures} against the test classes.
+ */
+public class ClassFeaturesTests {
+	private static final Path testResourceDirectory = Paths.get("src", "test", "resources");
+
+	@Test
+	public void stringConcat() throws IOException {
+		ClassFeatures features = scan("Java9Strings");
+		assertTrue(features.hasInvokeDynamic());
+		assertTrue(features.hasStringConcat());
+		assertFalse(features.hasRecordReference());
+		assertEquals(Opcodes.V1_7, features.getConstantPoolVersion());
+	}
+
+	@Test
+	public void lambdas() throws IOException {
+		ClassFeatures features = scan("Java8Lambdas");
+		assertTrue(features.hasLambdaMetafactory());
+		assertFalse(scan("Java9Strings").hasLambdaMetafactory());
+	}
+
+	@Test
+	public void record() throws IOException {
+		ClassFeatures features = scan("Java16Record");
+		assertTrue(features.hasRecordReference());
+		assertTrue(features.hasRecordAttribute());
+		assertFalse(features.hasNestHost());
+	}
+
+	@Test
+	public void nestMates() throws IOException {
+		assertTrue(scan("Java14SwitchExpr").hasNestMembers());
+		assertTrue(scan("Java14SwitchExpr$1").hasNestHost());
+	}
+
+	@Test
+	public void noFeatures() throws IOException {
+		ClassFeatures features = scan("Java16InstanceOf");
+		assertFalse(features.hasInvokeDynamic());
+		assertFalse(features.hasRecordReference());
+		assertFalse(features.hasNestHost());
+		assertFalse(features.hasNestMembers());
+		assertFalse(features.hasPermittedSubclasses());
+		assertFalse(features.hasModuleAttribute());
+		assertEquals(45, features.getConstantPoolVersion());
+	}
+
+	private static ClassFeatures scan(String name) throws IOException {
+		return ClassFeatures.scan(Files.readAllBytes(testResourceDirectory.resolve(name + ".class")));
+	}
+}
@@ -0,0 +1,731 @@
+package software.coley.versionpatcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceMethodVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Run the test classes through {@link PatchEngine} in batches, as the build plugins do.
+ */
+public class PatchEngineTests {
+	private static final Path testResourceDirectory = Paths.get("src", "test", "resources");
+	private static final int RUNTIME_CLASS_VERSION = (int) Double.parseDouble(System.getProperty("java.class.version"));
+	private static final String[] RECORD_COMPONENTS = {"z", "b", "c", "s", "i", "j", "f", "d", "text", "array", "other"};
+
+	@Test
+	public void patchAllInParallel(@TempDir Path temp) throws IOException {
+		List<ClassSource> sources = copyClasses(temp);
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(8);
+		options.setParallelism(4);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchReport report = engine.patchAll(sources, (source, ex) -> fail(source.getName(), ex));
+			assertEquals(sources.size(), report.getPatched() + report.getVersionOnly());
+			assertEquals(0, report.getFailed());
+		}
+		for (ClassSource source : sources) {
+			ClassReader reader = new ClassReader(source.read());
+			assertTrue(reader.readUnsignedShort(6) <= options.getClassVersion(), source.getName());
+		}
+	}
+
+	@Test
+	public void compliantClassesArePassedThrough(@TempDir Path temp) throws IOException {
+		List<ClassSource> sources = copyClasses(temp);
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(16);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			// The test classes are compiled with Java 16, so nothing should need patching
+			PatchReport report = engine.patchAll(sources, (source, ex) -> fail(source.getName(), ex));
+			assertEquals(sources.size(), report.getSkipped());
+			assertEquals(0, report.getPatched());
+			for (ClassSource source : sources) {
+				byte[] original = Files.readAllBytes(testResourceDirectory.resolve(source.getName()));
+				assertArrayEquals(original, source.read());
+				assertSame(original, engine.patch(original));
+			}
+		}
+	}
+
+	@Test
+	public void versionOnlyChangesAreInPlace(@TempDir Path temp) throws IOException {
+		List<ClassSource> sources = copyClasses(temp);
+		try (PatchEngine engine = new PatchEngine(new PatchOptions())) {
+			engine.patchAll(sources, (source, ex) -> fail(source.getName(), ex));
+		}
+		for (String name : new String[]{"Day.class", "Java15TextBlock.class", "Java16InstanceOf.class"}) {
+			// These classes only use features that are compiled away by javac, so only the version should differ
+			byte[] original = Files.readAllBytes(testResourceDirectory.resolve(name));
+			byte[] patched = Files.readAllBytes(temp.resolve(name));
+			assertEquals(Opcodes.V1_8, ClassHeader.getMajorVersion(patched));
+			ClassHeader.putVersion(patched, ClassHeader.VERSION_OFFSET, ClassHeader.getMajorVersion(original));
+			assertArrayEquals(original, patched, name);
+		}
+	}
+
+	@Test
+	public void patchingIsReproducible() throws IOException {
+		for (Path path : CoreTests.providePaths().collect(Collectors.toList())) {
+			byte[] original = Files.readAllBytes(path);
+			// Fresh engines, so nothing carries over between runs
+			byte[] first;
+			byte[] second;
+			try (PatchEngine engine = new PatchEngine(new PatchOptions())) {
+				first = engine.patch(original);
+			}
+			try (PatchEngine engine = new PatchEngine(new PatchOptions())) {
+				second = engine.patch(original);
+			}
+			assertArrayEquals(first, second, path.toString());
+		}
+	}
+
+	@Test
+	public void stringConcatStrategiesMatchIndyConcat() throws Exception {
+		byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java9Strings.class"));
+		byte[] arrayConcat = generateArrayConcat();
+		String[][] argSets = {{"https", "example.com", "index"}, {"a"}};
+		// Arrays are concatenated with String.valueOf, not Arrays.toString
+		Object[] arrays = {new int[]{1}, new String[]{"a"}, new int[][]{{2}}, new char[]{'c'}};
+		String expectedArrays = Stream.of(arrays).map(String::valueOf).collect(Collectors.joining("|"));
+		for (StringConcatStrategy strategy : StringConcatStrategy.values()) {
+			for (boolean copy : new boolean[]{true, false}) {
+				PatchOptions options = new PatchOptions();
+				options.setStringConcatStrategy(strategy);
+				options.setCopyUnmodifiedMethods(copy);
+				byte[] patched;
+				try (PatchEngine engine = new PatchEngine(options)) {
+					patched = engine.patch(original);
+				}
+				assertFalse(textifyMethods(patched).toString().contains("makeConcatWithConstants"), strategy.name());
+				for (String[] args : argSets)
+					assertEquals(expectedStringsOutput(args), runMain(patched, args), strategy + " copy=" + copy);
+				try (PatchEngine engine = new PatchEngine(options)) {
+					patched = engine.patch(arrayConcat);
+				}
+				Method concat = defineClass(patched).getMethod("concat", int[].class, String[].class, int[][].class, char[].class);
+				assertEquals(expectedArrays, concat.invoke(null, arrays), strategy + " copy=" + copy);
+			}
+		}
+	}
+
+	@Test
+	public void startupModeLowersStringConcatOnNewerTargets(@TempDir Path temp) throws Exception {
+		List<ClassSource> sources = copyClasses(temp);
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(16);
+		options.setOptimizeStartup(true);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchReport report = engine.patchAll(sources, (source, ex) -> fail(source.getName(), ex));
+			assertTrue(report.getPatched() > 0);
+			assertTrue(report.getLoweredCallSites() >= report.getPatched());
+			assertEquals(sources.size(), report.getPatched() + report.getSkipped());
+		}
+		byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java9Strings.class"));
+		byte[] patched = Files.readAllBytes(temp.resolve("Java9Strings.class"));
+		// Compliant classes keep their version, and need no runtime support
+		assertEquals(ClassHeader.getMajorVersion(original), ClassHeader.getMajorVersion(patched));
+		String code = textifyMethods(patched).toString();
+		assertFalse(code.contains("makeConcatWithConstants"));
+		assertFalse(code.contains(StringCompatDumper.CLASS_NAME));
+		String[] args = {"a", "b"};
+		if (canLoad(patched))
+			assertEquals(expectedStringsOutput(args), runMain(patched, args));
+	}
+
+	@Test
+	public void lambdasAreDesugaredInStartupMode() throws Exception {
+		byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java8Lambdas.class"));
+		String[] args = {"a", "b"};
+		// Output of the original, which is compiled for Java 16
+		String expected = Stream.of("Non-capturing", "Capturing: 43", "Instance: a from Java8Lambdas, 1, [a]",
+				"Static refs: 12, 7, 7", "Constructors: made, built", "Refs: UPPER, a-suffix", "Marked", "Cloneable: true",
+				"Bridged: bridge!").map(line -> line + System.lineSeparator()).collect(Collectors.joining());
+		for (int targetVersion : new int[]{8, 16}) {
+			PatchOptions options = new PatchOptions();
+			options.setTargetVersion(targetVersion);
+			options.setOptimizeStartup(true);
+			Map<String, byte[]> generated = new TreeMap<>();
+			byte[] patched;
+			byte[] patchedInterface;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patched = engine.patch(original, generated::put);
+				// Generated classes cannot be returned by the single class variant
+				assertThrows(IllegalStateException.class, () -> engine.patch(original));
+				patchedInterface = engine.patch(Files.readAllBytes(testResourceDirectory.resolve("Java8Lambdas$Named.class")));
+			}
+			String message = "Java " + targetVersion;
+			assertFalse(textifyMethods(patched).toString().contains("LambdaMetafactory"), message);
+			if (canLoad(patched)) {
+				// The nested interface is also compiled for Java 16, so it is loaded patched along with the class
+				Map<String, byte[]> classes = new HashMap<>(generated);
+				classes.put("Java8Lambdas$Named", patchedInterface);
+				assertEquals(expected, runMain(patched, classes, args), message);
+			}
+			// Non-capturing lambdas share a single instance, capturing ones are created by a factory
+			ClassNode nonCapturing = new ClassNode();
+			new ClassReader(generated.get("Java8Lambdas$$Lambda$1")).accept(nonCapturing, 0);
+			assertTrue(nonCapturing.fields.stream().anyMatch(f -> f.name.equals("INSTANCE")), message);
+			ClassNode capturing = new ClassNode();
+			new ClassReader(generated.get("Java8Lambdas$$Lambda$2")).accept(capturing, 0);
+			assertTrue(capturing.methods.stream().anyMatch(m -> m.name.equals("get$Lambda")), message);
+			for (byte[] generatedClass : generated.values())
+				assertEquals(options.getClassVersion(), ClassHeader.getMajorVersion(generatedClass), message);
+		}
+	}
+
+	@Test
+	public void switchBootstrapsAreLowered() throws Exception {
+		// Generated, as javac and the runtime of this build predate the final switch bootstraps
+		Object[] typeLabels = {"x", 7, Type.getType(CharSequence.class), 'c' + 0, Type.getType(Number.class), -300000};
+		Object[] enumLabels = {"DAYS", "FORTNIGHTS", "SECONDS", "DAYS", Type.getType(TimeUnit.class)};
+		byte[] original = generateSwitches(typeLabels, enumLabels);
+		Object[] typeSelectors = {null, "x", "y", 7, 7L, (short) -300000, -300000, 'c', 'd', 1.5, new Object()};
+		Object[] enumSelectors = {null, TimeUnit.DAYS, TimeUnit.SECONDS, TimeUnit.HOURS};
+		for (int targetVersion : new int[]{6, 8, 16}) {
+			PatchOptions options = new PatchOptions();
+			options.setTargetVersion(targetVersion);
+			Map<String, byte[]> generated = new TreeMap<>();
+			byte[] patched;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patched = engine.patch(original, generated::put);
+			}
+			String message = "Java " + targetVersion;
+			assertFalse(textifyMethods(patched).toString().contains("SwitchBootstraps"), message);
+			assertEquals(Collections.singleton("Switches$$SwitchMap"), generated.keySet(), message);
+			if (!canLoad(patched))
+				continue;
+			Class<?> cls = defineClass(patched, generated);
+			Method typeSwitch = cls.getMethod("typeSwitch", Object.class, int.class);
+			Method enumSwitch = cls.getMethod("enumSwitch", TimeUnit.class, int.class);
+			for (int restart = 0; restart <= typeLabels.length; restart++)
+				for (Object selector : typeSelectors)
+					assertEquals(expectedSwitchIndex(selector, restart, typeLabels), typeSwitch.invoke(null, selector, restart),
+							message + ": " + selector + " from " + restart);
+			for (int restart = 0; restart <= enumLabels.length; restart++)
+				for (Object selector : enumSelectors)
+					assertEquals(expectedSwitchIndex(selector, restart, enumLabels), enumSwitch.invoke(null, selector, restart),
+							message + ": " + selector + " from " + restart);
+		}
+	}
+
+	@Test
+	public void constantDynamicIsLoweredLazily() throws Exception {
+		byte[] original = generateConstants();
+		for (int targetVersion : new int[]{7, 8}) {
+			PatchOptions options = new PatchOptions();
+			options.setTargetVersion(targetVersion);
+			Map<String, byte[]> generated = new TreeMap<>();
+			byte[] patched;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patched = engine.patch(original, generated::put);
+			}
+			String message = "Java " + targetVersion;
+			assertFalse(ClassFeatures.scan(patched).hasConstantDynamic(), message);
+			// One holder per constant, including the one used as an argument of another
+			assertEquals(3, generated.size(), message);
+			for (byte[] generatedClass : generated.values())
+				assertEquals(options.getClassVersion(), ClassHeader.getMajorVersion(generatedClass), message);
+			List<Class<?>> classes = new ArrayList<>();
+			classes.add(defineClass(patched, generated));
+			// Constants are computed on first use, and only once
+			assertEquals(0, classes.get(0).getMethod("calls").invoke(null), message);
+			// The original needs a Java 11+ runtime
+			if (canLoad(original))
+				classes.add(defineClass(original));
+			for (Class<?> c : classes) {
+				assertEquals(7, c.getMethod("counted").invoke(null), message);
+				assertEquals(7, c.getMethod("counted").invoke(null), message);
+				assertEquals(1, c.getMethod("calls").invoke(null), message);
+				assertEquals(Integer.MAX_VALUE, c.getMethod("maxValue").invoke(null), message);
+				assertEquals(Integer.MAX_VALUE, c.getMethod("invoked").invoke(null), message);
+			}
+		}
+	}
+
+	@Test
+	public void dumpedStringCompatMatchesSource() throws Exception {
+		ClassLoader loader = new ClassLoader(PatchEngineTests.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) {
+				byte[] classBytes = StringCompatDumper.dump();
+				return defineClass(name, classBytes, 0, classBytes.length);
+			}
+		};
+		Class<?> dumped = loader.loadClass(StringCompatDumper.CLASS_NAME.replace('/', '.'));
+		// Arguments are inserted last to first, constants first to last
+		Object compat = dumped.getConstructor(int.class).newInstance(1);
+		dumped.getMethod("insert", int.class).invoke(compat, 3);
+		dumped.getMethod("insert", Object.class).invoke(compat, "b");
+		dumped.getMethod("insert", char.class).invoke(compat, 'a');
+		dumped.getMethod("constant", String.class).invoke(compat, "\u0001");
+		dumped.getMethod("constant", String.class).invoke(compat, "c");
+		String recipe = "\u0001-\u0001-\u0002\u0001\u0002";
+		String expected = new StringCompat(1).insert(3).insert("b").insert('a').constant("\u0001").constant("c").build(recipe);
+		assertEquals("a-b-\u00013c", expected);
+		assertEquals(expected, dumped.getMethod("build", String.class).invoke(compat, recipe));
+		// Parsed templates are reused, and slots without values are left as-is
+		assertEquals(expected, new StringCompat().insert(3).insert("b").insert('a').constant("\u0001").constant("c").build(recipe));
+		assertEquals("x-\u0001-\u0002\u0001\u0002", new StringCompat().insert("x").build(recipe));
+	}
+
+	@Test
+	public void recordMethodsMatchObjectMethods() throws Exception {
+		byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java16RecordTypes.class"));
+		byte[] nested = Files.readAllBytes(testResourceDirectory.resolve("Java16NestedRecords$Pair.class"));
+		// Without a Java 16+ runtime, the patched methods are only checked against the documented ObjectMethods behavior
+		Class<?> originalClass = canLoad(original) ? defineClass(original) : null;
+		for (int targetVersion : new int[]{6, 7, 8, 11, 16}) {
+			PatchOptions options = new PatchOptions();
+			options.setTargetVersion(targetVersion);
+			// Records are only rewritten on newer targets when optimizing startup
+			options.setOptimizeStartup(targetVersion >= 14);
+			byte[] patched;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patched = engine.patch(original);
+			}
+			assertNotSame(original, patched);
+			assertFalse(textifyMethods(patched).toString().contains("ObjectMethods"));
+			if (!canLoad(patched))
+				continue;
+			// Nested records are named without their outer class, like Class.getSimpleName()
+			byte[] patchedNested;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patchedNested = engine.patch(nested);
+			}
+			Object pair = defineClass(patchedNested).getConstructor(int.class, String.class).newInstance(1, "a");
+			assertEquals("Pair[left=1, right=a]", pair.toString(), "Java " + targetVersion);
+			Class<?> patchedClass = defineClass(patched);
+			assertEquals(targetVersion >= 14, patchedClass.getSuperclass().getName().equals("java.lang.Record"));
+			for (int seed = -1; seed <= 3; seed++) {
+				Object actual = patchedClass.getMethod("sample", int.class).invoke(null, seed);
+				Object[] components = getRecordComponents(actual);
+				String message = "Java " + targetVersion + ", seed " + seed;
+				assertEquals(expectedRecordHashCode(components), actual.hashCode(), message);
+				assertEquals(expectedRecordString(components), actual.toString(), message);
+				assertTrue(actual.equals(actual), message);
+				assertFalse(actual.equals(null), message);
+				if (originalClass != null) {
+					Object expected = originalClass.getMethod("sample", int.class).invoke(null, seed);
+					assertEquals(expected.hashCode(), actual.hashCode(), message);
+					assertEquals(expected.toString(), actual.toString(), message);
+					assertFalse(actual.equals(expected), message);
+				}
+				for (int otherSeed = -1; otherSeed <= 3; otherSeed++) {
+					Object actualOther = patchedClass.getMethod("sample", int.class).invoke(null, otherSeed);
+					// Boxed equality matches ObjectMethods, which compares floats and doubles by their bits
+					assertEquals(Arrays.equals(components, getRecordComponents(actualOther)), actual.equals(actualOther),
+							message + " vs " + otherSeed);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void handWrittenRecordMethodsAreKept() throws Exception {
+		byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java16NestedRecords$Named.class"));
+		for (int targetVersion : new int[]{6, 8, 16}) {
+			PatchOptions options = new PatchOptions();
+			options.setTargetVersion(targetVersion);
+			options.setOptimizeStartup(targetVersion >= 14);
+			byte[] patched;
+			try (PatchEngine engine = new PatchEngine(options)) {
+				patched = engine.patch(original);
+			}
+			String message = "Java " + targetVersion;
+			// Only the generated equals and hashCode are replaced
+			assertFalse(textifyMethods(patched).toString().contains("ObjectMethods"), message);
+			if (!canLoad(patched))
+				continue;
+			Object named = defineClass(patched).getConstructor(String.class).newInstance("a");
+			assertEquals("Named a", named.toString(), message);
+			assertEquals("a".hashCode(), named.hashCode(), message);
+			assertTrue(named.equals(named), message);
+		}
+	}
+
+	private static Object[] getRecordComponents(Object record) throws ReflectiveOperationException {
+		Object[] values = new Object[RECORD_COMPONENTS.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = record.getClass().getMethod(RECORD_COMPONENTS[i]).invoke(record);
+		return values;
+	}
+
+	private static int expectedRecordHashCode(Object[] components) {
+		int hash = 0;
+		for (Object component : components)
+			hash = hash * 31 + Objects.hashCode(component);
+		return hash;
+	}
+
+	private static String expectedRecordString(Object[] components) {
+		StringJoiner joiner = new StringJoiner(", ", "Java16RecordTypes[", "]");
+		for (int i = 0; i < components.length; i++)
+			joiner.add(RECORD_COMPONENTS[i] + "=" + components[i]);
+		return joiner.toString();
+	}
+
+	@Test
+	public void recordHashCodesCanBeMemoized() throws Exception {
+		PatchOptions options = new PatchOptions();
+		options.setMemoizeRecordHashCodes(true);
+		for (int targetVersion : new int[]{6, 8}) {
+			options.setTargetVersion(targetVersion);
+			try (PatchEngine engine = new PatchEngine(options)) {
+				// Only records of immutable components are memoized
+				assertFalse(hasHashField(engine.patch(Files.readAllBytes(testResourceDirectory.resolve("Java16RecordTypes.class")))));
+				byte[] original = Files.readAllBytes(testResourceDirectory.resolve("Java16Record.class"));
+				byte[] patched = engine.patch(original);
+				assertTrue(hasHashField(patched));
+				Class<?> patchedClass = defineClass(patched);
+				Object actual = patchedClass.getConstructor(String.class, int.class, int.class).newInstance("a", 1, 2);
+				int expected = expectedRecordHashCode(new Object[]{"a", 1, 2});
+				assertEquals(expected, actual.hashCode());
+				// Cached on first use
+				Field field = patchedClass.getDeclaredField(RecordMethodImplRewriter.HASH_FIELD);
+				field.setAccessible(true);
+				assertEquals(expected, field.getInt(actual));
+				assertEquals(expected, actual.hashCode());
+			}
+		}
+	}
+
+	private static boolean hasHashField(byte[] bytecode) {
+		ClassNode node = new ClassNode();
+		new ClassReader(bytecode).accept(node, 0);
+		return node.fields.stream().anyMatch(f -> f.name.equals(RecordMethodImplRewriter.HASH_FIELD) &&
+				f.access == (Opcodes.ACC_PRIVATE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC));
+	}
+
+	@Test
+	public void unmodifiedMethodsAreCopied() throws IOException {
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(8);
+		options.setCopyUnmodifiedMethods(true);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			for (Path path : CoreTests.providePaths().collect(Collectors.toList())) {
+				byte[] original = Files.readAllBytes(path);
+				Map<String, String> originalMethods = textifyMethods(original);
+				Map<String, String> patchedMethods = textifyMethods(engine.patch(original));
+				originalMethods.forEach((method, text) -> {
+					// Only methods with string concatenation should be rewritten
+					if (text.contains("makeConcatWithConstants") || method.startsWith("<init>"))
+						assertFalse(patchedMethods.get(method).contains("makeConcatWithConstants"), method);
+					else if (!RecordMethodImplRewriter.isRecognizedTargetMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+							method.substring(0, method.indexOf('(')), method.substring(method.indexOf('('))))
+						assertEquals(text, patchedMethods.get(method), method);
+				});
+			}
+		}
+	}
+
+	@Test
+	public void manifestSkipsUnchangedClasses(@TempDir Path temp) throws IOException {
+		Path classes = Files.createDirectory(temp.resolve("classes"));
+		copyClasses(classes);
+		Path manifestFile = temp.resolve("manifest.txt");
+		PatchOptions options = new PatchOptions();
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchManifest manifest = PatchManifest.load(manifestFile, options);
+			PatchReport first = engine.patchDirectory(classes, manifest, (source, ex) -> fail(source.getName(), ex));
+			manifest.save();
+			assertEquals(0, first.getUpToDate());
+
+			// Change one class back to its original content, the rest should be up-to-date
+			Files.copy(testResourceDirectory.resolve("Day.class"), classes.resolve("Day.class"),
+					StandardCopyOption.REPLACE_EXISTING);
+			manifest = PatchManifest.load(manifestFile, options);
+			PatchReport second = engine.patchDirectory(classes, manifest, (source, ex) -> fail(source.getName(), ex));
+			manifest.save();
+			assertEquals(first.getPatched() + first.getVersionOnly() - 1, second.getUpToDate());
+			assertEquals(1, second.getVersionOnly());
+			assertEquals(Opcodes.V1_8, ClassHeader.getMajorVersion(Files.readAllBytes(classes.resolve("Day.class"))));
+		}
+
+		// A different target invalidates all entries
+		options.setTargetVersion(11);
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchManifest manifest = PatchManifest.load(manifestFile, options);
+			PatchReport report = engine.patchDirectory(classes, manifest, (source, ex) -> fail(source.getName(), ex));
+			assertEquals(0, report.getUpToDate());
+		}
+	}
+
+	@Test
+	public void failuresAreReported(@TempDir Path temp) throws IOException {
+		Path invalid = temp.resolve("Invalid.class");
+		Files.write(invalid, new byte[]{1, 2, 3});
+		try (PatchEngine engine = new PatchEngine(new PatchOptions())) {
+			PatchReport report = engine.patchAll(Stream.of(new PathClassSource(invalid)).collect(Collectors.toList()),
+					(source, ex) -> assertEquals("Invalid.class", source.getName()));
+			assertEquals(1, report.getFailed());
+		}
+	}
+
+	private static byte[] generateArrayConcat() {
+		String descriptor = "([I[Ljava/lang/String;[[I[C)Ljava/lang/String;";
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V9, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "ArrayConcat", null, "java/lang/Object", null);
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "concat", descriptor, null, null);
+		mv.visitCode();
+		for (int i = 0; i < 4; i++)
+			mv.visitVarInsn(Opcodes.ALOAD, i);
+		Handle bsm = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/StringConcatFactory", "makeConcatWithConstants",
+				"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+						"Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+		mv.visitInvokeDynamicInsn("makeConcatWithConstants", descriptor, bsm, "\u0001|\u0001|\u0001|\u0001");
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] generateSwitches(Object[] typeLabels, Object[] enumLabels) {
+		String bsmDescriptor = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+				"[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "Switches", null, "java/lang/Object", null);
+		String[][] switches = {
+				{"typeSwitch", "(Ljava/lang/Object;I)I"},
+				{"enumSwitch", "(Ljava/util/concurrent/TimeUnit;I)I"}
+		};
+		for (String[] sw : switches) {
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, sw[0], sw[1], null, null);
+			mv.visitCode();
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			Handle bsm = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/runtime/SwitchBootstraps", sw[0], bsmDescriptor, false);
+			mv.visitInvokeDynamicInsn(sw[0], sw[1], bsm, sw[0].equals("typeSwitch") ? typeLabels : enumLabels);
+			mv.visitInsn(Opcodes.IRETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] generateConstants() {
+		String lookup = "Ljava/lang/invoke/MethodHandles$Lookup;";
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "Constants", null, "java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "calls", "I", null, null).visitEnd();
+		// Private bootstrap counting its calls, returning its int argument plus the number of trailing arguments
+		String countingDescriptor = "(" + lookup + "Ljava/lang/String;Ljava/lang/Class;I[Ljava/lang/String;)Ljava/lang/Object;";
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_VARARGS, "bootstrap",
+				countingDescriptor, null, null);
+		mv.visitCode();
+		mv.visitFieldInsn(Opcodes.GETSTATIC, "Constants", "calls", "I");
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.IADD);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, "Constants", "calls", "I");
+		mv.visitVarInsn(Opcodes.ALOAD, 4);
+		mv.visitInsn(Opcodes.ARRAYLENGTH);
+		mv.visitVarInsn(Opcodes.ILOAD, 3);
+		mv.visitInsn(Opcodes.IADD);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		ConstantDynamic counted = new ConstantDynamic("counted", "Ljava/lang/Object;",
+				new Handle(Opcodes.H_INVOKESTATIC, "Constants", "bootstrap", countingDescriptor, false), 5, "a", "b");
+		// Equivalents of ConstantBootstraps.getStaticFinal and invoke, which the patched class cannot use before Java 11
+		String getStaticFinalDescriptor = "(" + lookup + "Ljava/lang/String;Ljava/lang/Class;Ljava/lang/Class;)Ljava/lang/Object;";
+		mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "getStaticFinal", getStaticFinalDescriptor, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitVarInsn(Opcodes.ALOAD, 3);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitVarInsn(Opcodes.ALOAD, 2);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandles$Lookup", "findStaticGetter",
+				"(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/invoke/MethodHandle;", false);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invoke", "()Ljava/lang/Object;", false);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		String invokeDescriptor = "(" + lookup + "Ljava/lang/String;Ljava/lang/Class;Ljava/lang/invoke/MethodHandle;" +
+				"[Ljava/lang/Object;)Ljava/lang/Object;";
+		mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_VARARGS, "invoke", invokeDescriptor, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 3);
+		mv.visitVarInsn(Opcodes.ALOAD, 4);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeWithArguments",
+				"([Ljava/lang/Object;)Ljava/lang/Object;", false);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		ConstantDynamic maxValue = new ConstantDynamic("MAX_VALUE", "I",
+				new Handle(Opcodes.H_INVOKESTATIC, "Constants", "getStaticFinal", getStaticFinalDescriptor, false),
+				Type.getType(Integer.class));
+		ConstantDynamic invoked = new ConstantDynamic("invoked", "I",
+				new Handle(Opcodes.H_INVOKESTATIC, "Constants", "invoke", invokeDescriptor, false),
+				new Handle(Opcodes.H_INVOKESTATIC, "java/lang/Math", "max", "(II)I", false), 3, maxValue);
+		Object[][] getters = {{"calls", null}, {"counted", counted}, {"maxValue", maxValue}, {"invoked", invoked}};
+		for (Object[] getter : getters) {
+			ConstantDynamic constant = (ConstantDynamic) getter[1];
+			String descriptor = constant == null ? "I" : constant.getDescriptor();
+			mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, (String) getter[0], "()" + descriptor, null, null);
+			mv.visitCode();
+			if (constant == null)
+				mv.visitFieldInsn(Opcodes.GETSTATIC, "Constants", "calls", "I");
+			else
+				mv.visitLdcInsn(constant);
+			mv.visitInsn(Type.getType(descriptor).getOpcode(Opcodes.IRETURN));
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static int expectedSwitchIndex(Object selector, int restart, Object[] labels) throws ClassNotFoundException {
+		// Semantics of the switch bootstraps, with enum constants given by name
+		if (selector == null)
+			return -1;
+		for (int i = restart; i < labels.length; i++) {
+			Object label = labels[i];
+			if (label instanceof Type) {
+				if (Class.forName(((Type) label).getClassName()).isInstance(selector))
+					return i;
+			} else if (label instanceof Integer) {
+				int value = (Integer) label;
+				if (selector instanceof Number && ((Number) selector).intValue() == value ||
+						selector instanceof Character && (Character) selector == value)
+					return i;
+			} else if (selector instanceof Enum ? label.equals(((Enum<?>) selector).name()) : label.equals(selector)) {
+				return i;
+			}
+		}
+		return labels.length;
+	}
+
+	/**
+	 * @return Output of the main method of {@code Java9Strings}, which cannot be run on Java 8 before patching.
+	 */
+	private static String expectedStringsOutput(String[] args) {
+		if (args.length < 3)
+			return "Usage: <protocol> <domain> [suffix]\n - Expected 3 args, found " + args.length + " args" +
+					System.lineSeparator();
+		return args[0] + "://" + args[1] + "/" + args[2] + System.lineSeparator();
+	}
+
+	/**
+	 * @return Everything the class's main method printed to standard out and standard error.
+	 */
+	private static String runMain(byte[] bytecode, String[] args) throws Exception {
+		return runMain(bytecode, Collections.emptyMap(), args);
+	}
+
+	private static String runMain(byte[] bytecode, Map<String, byte[]> generated, String[] args) throws Exception {
+		Class<?> cls = defineClass(bytecode, generated);
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		try (PrintStream capture = new PrintStream(captured, true, "UTF-8")) {
+			System.setOut(capture);
+			System.setErr(capture);
+			cls.getMethod("main", String[].class).invoke(null, (Object) args);
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+		return captured.toString("UTF-8");
+	}
+
+	/**
+	 * @return {@code true} when the test runtime supports the version of the class, so that it can be loaded.
+	 */
+	private static boolean canLoad(byte[] bytecode) {
+		return ClassHeader.getMajorVersion(bytecode) <= RUNTIME_CLASS_VERSION;
+	}
+
+	private static Class<?> defineClass(byte[] bytecode) throws ClassNotFoundException {
+		return defineClass(bytecode, Collections.emptyMap());
+	}
+
+	/**
+	 * @return Class defined in its own loader, along with {@link StringCompat} and the given generated classes for it to use.
+	 */
+	private static Class<?> defineClass(byte[] bytecode, Map<String, byte[]> generated) throws ClassNotFoundException {
+		Map<String, byte[]> classes = new HashMap<>();
+		generated.forEach((name, classBytes) -> classes.put(name.replace('/', '.'), classBytes));
+		String className = new ClassReader(bytecode).getClassName().replace('/', '.');
+		classes.put(className, bytecode);
+		classes.put(StringCompatDumper.CLASS_NAME.replace('/', '.'), StringCompatDumper.dump());
+		ClassLoader loader = new ClassLoader(PatchEngineTests.class.getClassLoader()) {
+			@Override
+			protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				// The original test classes are also on the class path, so they must not be loaded from the parent
+				byte[] classBytes = classes.get(name);
+				if (classBytes == null)
+					return super.loadClass(name, resolve);
+				Class<?> loaded = findLoadedClass(name);
+				if (loaded != null)
+					return loaded;
+				return defineClass(name, classBytes, 0, classBytes.length);
+			}
+		};
+		return loader.loadClass(className);
+	}
+
+	private static Map<String, String> textifyMethods(byte[] bytecode) {
+		ClassNode node = new ClassNode();
+		new ClassReader(bytecode).accept(node, 0);
+		Map<String, String> methods = new TreeMap<>();
+		for (MethodNode method : node.methods) {
+			Textifier textifier = new Textifier();
+			method.accept(new TraceMethodVisitor(textifier));
+			StringWriter writer = new StringWriter();
+			textifier.print(new PrintWriter(writer));
+			methods.put(method.name + method.desc, writer.toString());
+		}
+		return methods;
+	}
+
+	static List<ClassSource> copyClasses(Path temp) throws IOException {
+		try (Stream<Path> stream = Files.list(testResourceDirectory)) {
+			List<Path> paths = stream.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+			for (Path path : paths)
+				Files.copy(path, temp.resolve(path.getFileName()));
+		}
+		try (Stream<Path> stream = Files.list(temp)) {
+			return stream.map(PathClassSource::new).collect(Collectors.toList());
+		}
+	}
+}
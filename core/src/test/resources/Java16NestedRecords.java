@@ -0,0 +1,17 @@
+public class Java16NestedRecords {
+	public record Pair(int left, String right) {
+	}
+
+	public record Named(String name) {
+		@Override
+		public final String toString() {
+			return "Named " + name;
+		}
+	}
+
+	public static void main(String[] args) {
+		String arg = args.length > 0 ? args[0] : null;
+		System.out.println(new Pair(1, arg));
+		System.out.println(new Named(arg));
+	}
+}
@@ -0,0 +1,17 @@
+public record Java16RecordTypes(boolean z, byte b, char c, short s, int i, long j, float f, double d,
+								String text, int[] array, Object other) {
+	public static Java16RecordTypes sample(int seed) {
+		return new Java16RecordTypes(seed % 2 == 0, (byte) seed, (char) ('a' + seed), (short) (seed * 3), seed * 7,
+				seed * 11L << 33, seed / 2F, seed == 0 ? Double.NaN : seed / 4D, seed < 0 ? null : "text" + seed,
+				null, seed > 1 ? Integer.valueOf(seed) : null);
+	}
+
+	public static void main(String[] args) {
+		Java16RecordTypes a = sample(3);
+		Java16RecordTypes b = sample(3);
+		Java16RecordTypes c = sample(0);
+		System.out.println(a + " equals " + b + " = " + a.equals(b) + ", same hash = " + (a.hashCode() == b.hashCode()));
+		System.out.println(a + " equals " + c + " = " + a.equals(c));
+		System.out.println(c + " equals itself = " + c.equals(sample(0)));
+	}
+}
@@ -0,0 +1,55 @@
+import java.util.function.*;
+
+public class Java8Lambdas {
+	private final String name;
+
+	private Java8Lambdas(String name) {
+		this.name = name;
+	}
+
+	public static void main(String[] args) {
+		Java8Lambdas instance = new Java8Lambdas(args.length > 0 ? args[0] : "lambdas");
+		Runnable nonCapturing = () -> System.out.println("Non-capturing");
+		nonCapturing.run();
+		int offset = args.length;
+		IntUnaryOperator capturing = x -> x + offset;
+		System.out.println("Capturing: " + capturing.applyAsInt(41));
+		instance.instanceLambdas();
+		Function<String, Integer> parse = Integer::parseInt;
+		ToLongFunction<String> length = String::length;
+		BiFunction<Integer, Integer, Integer> max = Math::max;
+		System.out.println("Static refs: " + parse.apply("12") + ", " + length.applyAsLong("widened") + ", " + max.apply(3, 7));
+		Function<String, Java8Lambdas> constructor = Java8Lambdas::new;
+		Supplier<StringBuilder> builder = StringBuilder::new;
+		System.out.println("Constructors: " + constructor.apply("made").name + ", " + builder.get().append("built"));
+		UnaryOperator<String> upper = String::toUpperCase;
+		Function<String, String> bound = instance.name::concat;
+		System.out.println("Refs: " + upper.apply("upper") + ", " + bound.apply("-suffix"));
+		Runnable marked = (Runnable & Cloneable) () -> System.out.println("Marked");
+		marked.run();
+		System.out.println("Cloneable: " + (marked instanceof Cloneable));
+		Named named = s -> s + "!";
+		Function<String, String> bridged = named;
+		System.out.println("Bridged: " + bridged.apply("bridge"));
+	}
+
+	private void instanceLambdas() {
+		Supplier<String> capturingThis = () -> name + " from " + getClass().getSimpleName();
+		Supplier<Object> boxed = this::hash;
+		Function<String, String> privateRef = Java8Lambdas::decorate;
+		System.out.println("Instance: " + capturingThis.get() + ", " + boxed.get() + ", " + privateRef.apply(name));
+	}
+
+	private int hash() {
+		return name.length();
+	}
+
+	private static String decorate(String value) {
+		return "[" + value + "]";
+	}
+
+	public interface Named extends Function<String, String> {
+		@Override
+		String apply(String value);
+	}
+}
@@ -4,6 +4,7 @@ import org.gradle.api.Project;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import software.coley.versionpatcher.StringConcatStrategy;
 
 /**
  * Plugin config properties.
@@ -12,6 +13,13 @@ import org.gradle.api.provider.Property;
  */
 public class PatcherExtension {
 	private final Property<Integer> targetVersion;
+	private final Property<Integer> parallelism;
+	private final Property<Boolean> copyUnmodifiedMethods;
+	private final Property<StringConcatStrategy> stringConcatStrategy;
+	private final Property<Boolean> memoizeRecordHashCodes;
+	private final Property<Boolean> optimizeStartup;
+	private final Property<Boolean> reproducible;
+	private final Property<Boolean> incremental;
 	private final Property<Boolean> patchDependencies;
 	private final Property<Boolean> patchCode;
 	private final Property<Boolean> postProcess;
@@ -20,6 +28,13 @@ public class PatcherExtension {
 	public PatcherExtension(Project project) {
 		ObjectFactory objects = project.getObjects();
 		this.targetVersion = objects.property(Integer.class);
+		this.parallelism = objects.property(Integer.class);
+		this.copyUnmodifiedMethods = objects.property(Boolean.class);
+		this.stringConcatStrategy = objects.property(StringConcatStrategy.class);
+		this.memoizeRecordHashCodes = objects.property(Boolean.class);
+		this.optimizeStartup = objects.property(Boolean.class);
+		this.reproducible = objects.property(Boolean.class);
+		this.incremental = objects.property(Boolean.class);
 		this.patchDependencies = objects.property(Boolean.class);
 		this.patchCode = objects.property(Boolean.class);
 		this.postProcess = objects.property(Boolean.class);
@@ -30,6 +45,34 @@ public class PatcherExtension {
 		return targetVersion;
 	}
 
+	public Property<Integer> getParallelism() {
+		return parallelism;
+	}
+
+	public Property<Boolean> getCopyUnmodifiedMethods() {
+		return copyUnmodifiedMethods;
+	}
+
+	public Property<StringConcatStrategy> getStringConcatStrategy() {
+		return stringConcatStrategy;
+	}
+
+	public Property<Boolean> getMemoizeRecordHashCodes() {
+		return memoizeRecordHashCodes;
+	}
+
+	public Property<Boolean> getOptimizeStartup() {
+		return optimizeStartup;
+	}
+
+	public Property<Boolean> getReproducible() {
+		return reproducible;
+	}
+
+	public Property<Boolean> getIncremental() {
+		return incremental;
+	}
+
 	public Property<Boolean> getPatchDependencies() {
 		return patchDependencies;
 	}
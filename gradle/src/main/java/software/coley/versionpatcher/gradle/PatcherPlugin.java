@@ -1,7 +1,6 @@
 package software.coley.versionpatcher.gradle;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
@@ -12,22 +11,19 @@ import org.gradle.api.plugins.Convention;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.coley.versionpatcher.PatchEngine;
+import software.coley.versionpatcher.PatchManifest;
+import software.coley.versionpatcher.PatchOptions;
+import software.coley.versionpatcher.PatchReport;
 import software.coley.versionpatcher.StringCompatDumper;
-import software.coley.versionpatcher.VersionPatcher;
+import software.coley.versionpatcher.StringConcatStrategy;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Gradle plugin implementation for patching.
@@ -65,7 +61,7 @@ public class PatcherPlugin implements Plugin<Project> {
 		}
 		Task taskPatchCode = project.getTasks().register("patch-code").get();
 		taskPatchCode.setActions(Collections.singletonList(task -> {
-			patchCode(project, extension.getTargetVersion().getOrElse(8));
+			patchCode(project, createOptions(extension), extension.getIncremental().getOrElse(true));
 		}));
 		// Inject code patching after compilation step
 		taskPatchCode.setDependsOn(project.getTasksByName("compileJava", false));
@@ -92,32 +88,35 @@ public class PatcherPlugin implements Plugin<Project> {
 		 // TODO: Scan dependencies and copy complaint versions to output directory
 	}
 
-	private void patchCode(Project project, int targetVersion) {
-		// Collect classes to patch
-		File buildDir = project.getBuildDir();
-		Collection<Path> classes;
-		try {
-			classes = Files.walk(Paths.get(buildDir.getAbsolutePath()))
-					.filter(path -> path.getFileName().toString().endsWith(".class"))
-					.collect(Collectors.toList());
-		} catch (IOException ex) {
-			logger.error("Failed to collect paths of classes to patch", ex);
-			return;
-		}
+	private void patchCode(Project project, PatchOptions options, boolean incremental) {
+		Path buildDir = Paths.get(project.getBuildDir().getAbsolutePath());
+		// Track what has been patched so unchanged classes can be skipped in later builds
+		PatchManifest manifest = incremental ?
+				PatchManifest.load(buildDir.resolve("tmp").resolve("version-patcher").resolve("compiled.manifest"), options) : null;
 		// Patch each class
-		for (Path path : classes) {
-			try {
-				ClassReader cr = new ClassReader(Files.readAllBytes(path));
-				ClassWriter cw = new ClassWriter(0);
-				ClassVisitor cv = new VersionPatcher(cw, targetVersion);
-				cr.accept(cv, ClassReader.EXPAND_FRAMES);
-				IOUtils.write(cw.toByteArray(), new FileOutputStream(path.toFile()));
-			} catch (Exception ex) {
-				logger.error("Failed to patch class '" + path.getFileName().toString() + "'", ex);
-			}
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchReport report = engine.patchDirectory(buildDir, manifest, (source, ex) ->
+					logger.error("Failed to patch class '" + source.getName() + "'", ex));
+			logger.info("Patched compiled classes: {}", report);
+			if (manifest != null)
+				manifest.save();
+		} catch (IOException ex) {
+			logger.error("Failed to patch compiled classes due to IO error", ex);
 		}
 	}
 
+	private static PatchOptions createOptions(PatcherExtension extension) {
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(extension.getTargetVersion().getOrElse(8));
+		options.setParallelism(extension.getParallelism().getOrElse(0));
+		options.setCopyUnmodifiedMethods(extension.getCopyUnmodifiedMethods().getOrElse(true));
+		options.setStringConcatStrategy(extension.getStringConcatStrategy().getOrElse(StringConcatStrategy.COMPAT));
+		options.setMemoizeRecordHashCodes(extension.getMemoizeRecordHashCodes().getOrElse(false));
+		options.setOptimizeStartup(extension.getOptimizeStartup().getOrElse(false));
+		options.setReproducible(extension.getReproducible().getOrElse(false));
+		return options;
+	}
+
 	private void addPostProcessing(Project project, int targetVersion) {
 		if (targetVersion < 9) {
 			// TODO: Drop extra classes in output dir
@@ -5,6 +5,11 @@ import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
+import software.coley.versionpatcher.PatchOptions;
+import software.coley.versionpatcher.StringConcatStrategy;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 
 /**
  * Base for other patching mojos.
@@ -18,5 +23,59 @@ public abstract class AbstractPatcherMojo extends AbstractMojo {
 	protected MavenProject project;
 	@Parameter
 	protected int targetVersion;
+	@Parameter(property = "patcher.parallelism", defaultValue = "0")
+	protected int parallelism;
+	@Parameter(property = "patcher.copyUnmodifiedMethods", defaultValue = "true")
+	protected boolean copyUnmodifiedMethods;
+	@Parameter(property = "patcher.stringConcatStrategy", defaultValue = "COMPAT")
+	protected StringConcatStrategy stringConcatStrategy;
+	@Parameter(property = "patcher.memoizeRecordHashCodes", defaultValue = "false")
+	protected boolean memoizeRecordHashCodes;
+	@Parameter(property = "patcher.optimizeStartup", defaultValue = "false")
+	protected boolean optimizeStartup;
+	@Parameter(property = "patcher.reproducible", defaultValue = "false")
+	protected boolean reproducible;
+	@Parameter(defaultValue = "${project.build.outputTimestamp}")
+	protected String outputTimestamp;
 	protected int classVersion;
+
+	/**
+	 * @return Patching configuration from the mojo parameters.
+	 */
+	protected PatchOptions createOptions() {
+		PatchOptions options = new PatchOptions();
+		options.setTargetVersion(targetVersion);
+		options.setParallelism(parallelism);
+		options.setCopyUnmodifiedMethods(copyUnmodifiedMethods);
+		options.setStringConcatStrategy(stringConcatStrategy);
+		options.setMemoizeRecordHashCodes(memoizeRecordHashCodes);
+		options.setOptimizeStartup(optimizeStartup);
+		// Setting the standard output timestamp property also makes the output reproducible
+		Long timestamp = parseOutputTimestamp(outputTimestamp);
+		options.setReproducible(reproducible || timestamp != null);
+		if (timestamp != null)
+			options.setOutputTimestamp(timestamp);
+		return options;
+	}
+
+	/**
+	 * @param value
+	 * 		Value of {@code project.build.outputTimestamp}, either seconds since the epoch or an ISO-8601 date-time.
+	 *
+	 * @return Timestamp in milliseconds, or {@code null} when not set.
+	 */
+	private Long parseOutputTimestamp(String value) {
+		// A single character disables the timestamp, matching the Maven archiver
+		if (value == null || value.trim().length() <= 1)
+			return null;
+		value = value.trim();
+		try {
+			if (value.chars().allMatch(Character::isDigit))
+				return Long.parseLong(value) * 1000L;
+			return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+		} catch (DateTimeParseException | NumberFormatException ex) {
+			logger.warn("Ignoring invalid output timestamp: " + value);
+			return null;
+		}
+	}
 }
@@ -1,16 +1,15 @@
 package software.coley.versionpatcher.maven;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
-import software.coley.versionpatcher.VersionPatcher;
+import org.apache.maven.plugins.annotations.Parameter;
+import software.coley.versionpatcher.PatchEngine;
+import software.coley.versionpatcher.PatchManifest;
+import software.coley.versionpatcher.PatchOptions;
+import software.coley.versionpatcher.PatchReport;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -23,6 +22,9 @@ import java.nio.file.Paths;
  */
 @Mojo(name = "patch-compiled", defaultPhase = LifecyclePhase.COMPILE)
 public class CompilePatcherMojo extends AbstractPatcherMojo {
+	@Parameter(property = "patcher.incremental", defaultValue = "true")
+	protected boolean incremental;
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		if (project == null)
@@ -39,16 +41,18 @@ public class CompilePatcherMojo extends AbstractPatcherMojo {
 
 	private void patchCompiled() throws IOException {
 		Path outputRoot = Paths.get(project.getBuild().getOutputDirectory());
-		Files.walk(outputRoot).filter(p -> p.toString().endsWith(".class")).forEach(p -> {
-			try {
-				ClassReader cr = new ClassReader(Files.readAllBytes(p));
-				ClassWriter cw = new ClassWriter(0);
-				ClassVisitor cv = new VersionPatcher(cw, targetVersion);
-				cr.accept(cv, ClassReader.EXPAND_FRAMES);
-				IOUtils.write(cw.toByteArray(), new FileOutputStream(p.toFile()));
-			} catch (Exception ex) {
-				logger.error("Failed to patch class '" + p.getFileName().toString() + "'", ex);
-			}
-		});
+		if (!Files.isDirectory(outputRoot))
+			return;
+		PatchOptions options = createOptions();
+		// Track what has been patched so unchanged classes can be skipped in later builds
+		PatchManifest manifest = incremental ?
+				PatchManifest.load(Paths.get(project.getBuild().getDirectory(), "version-patcher", "compiled.manifest"), options) : null;
+		try (PatchEngine engine = new PatchEngine(options)) {
+			PatchReport report = engine.patchDirectory(outputRoot, manifest, (source, ex) ->
+					logger.error("Failed to patch class '" + source.getName() + "'", ex));
+			logger.info("Patched compiled classes: " + report);
+		}
+		if (manifest != null)
+			manifest.save();
 	}
 }
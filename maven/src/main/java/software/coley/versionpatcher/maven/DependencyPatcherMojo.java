@@ -1,7 +1,6 @@
 package software.coley.versionpatcher.maven;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -10,17 +9,23 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
-import software.coley.versionpatcher.VersionPatcher;
+import software.coley.versionpatcher.ArtifactCache;
+import software.coley.versionpatcher.ArtifactMemoryCache;
+import software.coley.versionpatcher.JarPatcher;
+import software.coley.versionpatcher.PatchEngine;
+import software.coley.versionpatcher.PatchReport;
+import software.coley.versionpatcher.ZipArchive;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
 
 /**
  * Plugin mojo that copies and modifies dependencies that not compliant with the specified
@@ -32,6 +37,12 @@ import java.util.zip.ZipFile;
 public class DependencyPatcherMojo extends AbstractPatcherMojo {
 	@Parameter(property = "artifacts")
 	public List<String> artifacts;
+	@Parameter(property = "patcher.cache", defaultValue = "true")
+	protected boolean cache;
+	@Parameter(property = "patcher.cacheDirectory")
+	protected File cacheDirectory;
+	@Parameter(property = "patcher.cacheMaxSizeMb", defaultValue = "1024")
+	protected long cacheMaxSizeMb;
 	@Parameter(defaultValue = "${localRepository}", readonly = true, required = true)
 	private ArtifactRepository localRepository;
 
@@ -55,69 +66,149 @@ public class DependencyPatcherMojo extends AbstractPatcherMojo {
 	private void patchDependencies() throws MojoFailureException, MojoExecutionException {
 		logger.info("Attempting to patch " + artifacts.size() + " dependencies to target version " + targetVersion);
 		List<Dependency> dependencies = project.getModel().getDependencies();
-		for (Dependency dependency : dependencies) {
-			String id = dependency.getGroupId() + ":" + dependency.getArtifactId();
-			if (artifacts.contains(id)) {
-				artifacts.remove(id);
-				logger.info("Found dependency to patch: " + dependency.toString());
-				if (dependency.getScope().equals("compile"))
-					logger.warn(" - This dependency should be marked as 'provided' since it will be bundled as a patched class!");
-				patchDependency(dependency);
+		ArtifactCache artifactCache = createCache();
+		try (PatchEngine engine = new PatchEngine(createOptions())) {
+			for (Dependency dependency : dependencies) {
+				String id = dependency.getGroupId() + ":" + dependency.getArtifactId();
+				if (artifacts.contains(id)) {
+					artifacts.remove(id);
+					logger.info("Found dependency to patch: " + dependency.toString());
+					if (dependency.getScope().equals("compile"))
+						logger.warn(" - This dependency should be marked as 'provided' since it will be bundled as a patched class!");
+					patchDependency(engine, artifactCache, dependency);
+				}
 			}
 		}
 		if (!artifacts.isEmpty())
 			throw new MojoFailureException("Failed to find dependencies: " + String.join(", ", artifacts));
 	}
 
+	/**
+	 * @return Cache of patched dependencies shared between builds, or {@code null} when disabled.
+	 */
+	private ArtifactCache createCache() {
+		if (!cache)
+			return null;
+		Path directory = cacheDirectory != null ? cacheDirectory.toPath() :
+				Paths.get(localRepository.getBasedir()).resolveSibling("version-patcher-cache");
+		return new ArtifactCache(directory, cacheMaxSizeMb * 1024 * 1024);
+	}
+
 	/**
 	 * Patches all classes in the given dependency.
 	 *
+	 * @param engine Engine to patch classes with.
+	 * @param artifactCache Cache to fetch previously patched dependencies from, and to store newly patched ones into.
+	 * May be {@code null} to always patch.
 	 * @param dependency Dependency to read from.
 	 * @throws MojoExecutionException When anything goes wrong. See the associated cause exception.
 	 */
-	private void patchDependency(Dependency dependency) throws MojoExecutionException {
+	private void patchDependency(PatchEngine engine, ArtifactCache artifactCache, Dependency dependency)
+			throws MojoExecutionException {
 		String path = localRepository.getBasedir() + '/'
 				+ dependency.getGroupId().replace('.', '/') + '/'
 				+ dependency.getArtifactId() + '/'
 				+ dependency.getVersion() + '/'
 				+ dependency.getArtifactId() + '-' + dependency.getVersion() + ".jar";
 		path = path.replace('/', File.separatorChar);
-		File input = new File(path);
-		if (!input.exists())
+		Path input = Paths.get(path);
+		if (!Files.exists(input))
 			throw new MojoExecutionException("File not found: " + path);
-		// Patch the classes by copying modified classes
-		try (ZipFile zipFile = new ZipFile(input)) {
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				if (entry.isDirectory())
-					continue;
-				if (entry.getName().endsWith(".class")) {
-					byte[] in = IOUtils.toByteArray(zipFile.getInputStream(entry));
-					handleClass(in);
+		Path outputRoot = Paths.get(project.getBuild().getOutputDirectory());
+		try {
+			// Other modules of the same build may have already patched the same dependency
+			String key = ArtifactCache.key(input, engine.getOptions());
+			String memoryKey = dependency.getManagementKey() + ':' + dependency.getVersion() + '@' + key;
+			Map<String, byte[]> classes = ArtifactMemoryCache.shared().get(memoryKey, () -> {
+				JarPatcher patcher = new JarPatcher(engine);
+				if (artifactCache == null)
+					return patchUncached(patcher, input);
+				Path patched = artifactCache.get(key);
+				if (patched != null) {
+					logger.info(" - Using cached patched dependency: " + patched);
+					try {
+						return readClasses(patched);
+					} catch (NoSuchFileException ex) {
+						// Evicted by another build since it was looked up, so treat it as a miss
+						logger.info(" - Cached patched dependency was evicted, patching again");
+					}
 				}
-			}
+				patched = artifactCache.computeIfAbsent(key, output -> patchJar(patcher, input, output));
+				try {
+					return readClasses(patched);
+				} catch (NoSuchFileException ex) {
+					// Evicted by another build right after being written
+					return patchUncached(patcher, input);
+				}
+			});
+			writeClasses(classes, outputRoot);
 		} catch (IOException e) {
-			throw new MojoExecutionException("File not parsable: " + path, e);
+			throw new MojoExecutionException("Failed to patch: " + path, e);
 		}
 	}
 
 	/**
-	 * @param bytecode Class to write to the project's build output directory.
-	 * @throws IOException When writing to the output dir fails.
+	 * @param patcher Patcher to patch the jar with.
+	 * @param input Jar to patch.
+	 * @return Map of class entry names to patched classes, patched through a temporary jar outside the cache.
+	 * @throws IOException When the jar cannot be patched, or any of its classes could not be patched.
 	 */
-	private void handleClass(byte[] bytecode) throws IOException {
-		ClassReader cr = new ClassReader(bytecode);
-		// Ensure directories exist to write to
-		File outputRoot = new File(project.getBuild().getOutputDirectory());
-		File dest = new File(outputRoot, cr.getClassName() + ".class");
-		if (dest.exists())
-			return;
-		FileUtils.forceMkdirParent(dest);
-		// Rewrite the class with the target version
-		ClassWriter cw = new ClassWriter(0);
-		ClassVisitor cv = new VersionPatcher(cw, targetVersion);
-		cr.accept(cv, ClassReader.EXPAND_FRAMES);
-		IOUtils.write(cw.toByteArray(), new FileOutputStream(dest));
+	private Map<String, byte[]> patchUncached(JarPatcher patcher, Path input) throws IOException {
+		Path patched = Files.createTempFile("patched-", ".jar");
+		try {
+			patchJar(patcher, input, patched);
+			return readClasses(patched);
+		} finally {
+			Files.deleteIfExists(patched);
+		}
+	}
+
+	/**
+	 * @param patcher Patcher to patch the jar with.
+	 * @param input Jar to patch.
+	 * @param output Location to write the patched jar to.
+	 * @throws IOException When the jar cannot be patched, or any of its classes could not be patched.
+	 */
+	private void patchJar(JarPatcher patcher, Path input, Path output) throws IOException {
+		PatchReport report = patcher.patch(input, output, (source, ex) ->
+				logger.error("Failed to patch class '" + source.getName() + "'", ex));
+		logger.info(" - Patched dependency classes: " + report);
+		if (report.getFailed() > 0)
+			throw new IOException("Failed to patch " + report.getFailed() + " classes in: " + input);
+	}
+
+	/**
+	 * @param jar Patched jar.
+	 * @return Map of class entry names to classes in the jar.
+	 * @throws IOException When the jar cannot be read.
+	 */
+	private static Map<String, byte[]> readClasses(Path jar) throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			for (ZipArchive.Entry entry : archive.getEntries())
+				if (!entry.isDirectory() && entry.getName().endsWith(".class"))
+					classes.put(entry.getName(), archive.read(entry));
+		}
+		return classes;
+	}
+
+	/**
+	 * Writes patched classes to the project's build output directory.
+	 * Classes that already exist in the output directory are not replaced.
+	 *
+	 * @param classes Map of class entry names to patched classes.
+	 * @param outputRoot Build output directory.
+	 * @throws IOException When the classes cannot be written.
+	 */
+	private static void writeClasses(Map<String, byte[]> classes, Path outputRoot) throws IOException {
+		for (byte[] bytecode : classes.values()) {
+			ClassReader cr = new ClassReader(bytecode);
+			// Ensure directories exist to write to
+			File dest = outputRoot.resolve(cr.getClassName() + ".class").toFile();
+			if (dest.exists())
+				continue;
+			FileUtils.forceMkdirParent(dest);
+			Files.write(dest.toPath(), bytecode, StandardOpenOption.CREATE_NEW);
+		}
 	}
 }